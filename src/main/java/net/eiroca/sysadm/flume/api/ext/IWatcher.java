@@ -16,11 +16,20 @@
 package net.eiroca.sysadm.flume.api.ext;
 
 import java.util.List;
+import java.util.Set;
 
 public interface IWatcher {
 
   List<IWatcherResult> getMatchingFiles();
 
+  /**
+   * @return the sources created, modified or deleted before the last {@link #getMatchingFiles()},
+   *         null if the watcher cannot tell (every source has to be checked).
+   */
+  Set<String> getChangedSources();
+
+  void close();
+
   public String getName();
 
 }
@@ -85,7 +85,7 @@ abstract public class Action extends ConfigurableObject implements IAction {
       }
       else {
         if (expand) {
-          value = MacroExpander.expand(value, headers, body);
+          value = MacroExpander.expandValue(value, headers, body);
         }
       }
       Action.logger.trace(LibStr.concatenate("Header Set ", name, " = ", value));
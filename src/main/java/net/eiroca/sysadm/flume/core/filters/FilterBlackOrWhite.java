@@ -24,7 +24,7 @@ import net.eiroca.library.config.parameter.IntegerParameter;
 import net.eiroca.library.config.parameter.StringParameter;
 import net.eiroca.library.core.LibStr;
 import net.eiroca.library.system.Logs;
-import net.eiroca.sysadm.flume.core.util.MacroExpander;
+import net.eiroca.sysadm.flume.core.util.CompiledMacro;
 
 abstract public class FilterBlackOrWhite extends Filter {
 
@@ -38,7 +38,7 @@ abstract public class FilterBlackOrWhite extends Filter {
   final private transient BooleanParameter pFilterAcceptFT = new BooleanParameter(params, "accept.FT", false);
   final private transient BooleanParameter pFilterAcceptFF = new BooleanParameter(params, "accept.FF", true);
 
-  protected String filterMatch;
+  protected CompiledMacro filterMatch;
   protected int filterMatchLimit;
   protected boolean ignoreCase;
   protected HashMap<String, Boolean> filterAcceptRules = new HashMap<>();
@@ -47,7 +47,7 @@ abstract public class FilterBlackOrWhite extends Filter {
   public void configure(final ImmutableMap<String, String> config, final String prefix) {
     super.configure(config, prefix);
     filterAcceptRules.clear();
-    filterMatch = pFilterMatch.get();
+    filterMatch = CompiledMacro.compile(pFilterMatch.get());
     filterMatchLimit = pFilterMatchLimit.get();
     ignoreCase = pIgnoreCase.get();
     filterAcceptRules.put("TT", pFilterAcceptTT.get());
@@ -60,7 +60,7 @@ abstract public class FilterBlackOrWhite extends Filter {
   public boolean accept(final Map<String, String> headers, final String body) {
     if (LibStr.isEmptyOrNull(body)) { return acceptNullBody; }
     if (filterMatch == null) { return true; }
-    String match = LibStr.limit(MacroExpander.expand(filterMatch, headers, body), filterMatchLimit);
+    String match = LibStr.limit(filterMatch.expand(headers, body), filterMatchLimit);
     if (ignoreCase) {
       match = match.toLowerCase();
     }
@@ -0,0 +1,332 @@
+/**
+ * Copyright (C) 1999-2021 Enrico Croce - AGPL >= 3.0
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package net.eiroca.sysadm.flume.core.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import org.slf4j.Logger;
+import net.eiroca.library.system.Logs;
+
+/**
+ * A {@link MacroExpander} template parsed once into a token program. Build it at configure time
+ * with {@link #compile(String)} and call one of the expand methods per event.
+ *
+ * Static %[...] macros are folded into literal text while compiling, quoted datetime ones are
+ * rendered per event unless a refresh period is given (%["pattern"@N]).
+ */
+public class CompiledMacro {
+
+  transient private static final Logger logger = Logs.getLogger();
+
+  private static final String EMPTY = "";
+
+  private static final byte LITERAL = 0;
+  private static final byte BODY = 1;
+  private static final byte FIELD = 2;
+  private static final byte HEADER = 3;
+  private static final byte STATIC = 4;
+  private static final byte SHORTHAND = 5;
+  private static final byte DATETIME = 6;
+
+  // Builders grown above this size are not kept for reuse
+  private static final int MAX_BUFFER_SIZE = 64 * 1024;
+
+  private static final ThreadLocal<StringBuilder> buffer = new ThreadLocal<StringBuilder>() {
+
+    @Override
+    protected StringBuilder initialValue() {
+      return new StringBuilder(256);
+    }
+
+  };
+
+  private static final class Token {
+
+    final byte kind;
+    final String arg;
+    final char code;
+    // DATETIME refresh period in ms, <=0 -> every event
+    final long period;
+    volatile String value;
+    volatile long expire;
+
+    Token(final byte kind, final String arg, final char code, final long period) {
+      this.kind = kind;
+      this.arg = arg;
+      this.code = code;
+      this.period = period;
+    }
+
+    String datetime(final long now) {
+      if (period <= 0) { return MacroExpander.formatStatic(arg, now); }
+      String result = value;
+      if ((result == null) || (now >= expire)) {
+        result = MacroExpander.formatStatic(arg, now);
+        value = result;
+        expire = now + period;
+      }
+      return result;
+    }
+
+  }
+
+  private final String macro;
+
+  transient private final Token[] tokens;
+  transient private final String constant;
+  transient private final boolean onlyBody;
+  transient private final int sizeHint;
+
+  public static CompiledMacro compile(final String macro) {
+    return (macro != null) ? new CompiledMacro(macro) : null;
+  }
+
+  private CompiledMacro(final String macro) {
+    this.macro = macro;
+    final List<Token> t = new ArrayList<>();
+    final int size = macro.length();
+    int i = 0, s = 0, p;
+    char ch;
+    while (i < size) {
+      ch = macro.charAt(i);
+      if ((ch != '%') || ((i + 1) >= size)) {
+        i++;
+        continue;
+      }
+      if (s < i) {
+        CompiledMacro.literal(t, macro.substring(s, i));
+      }
+      i++;
+      final char nc = macro.charAt(i);
+      p = i + 1;
+      switch (nc) {
+        case '[':
+          i = CompiledMacro.named(t, CompiledMacro.STATIC, macro, p, ']');
+          break;
+        case '(':
+          i = CompiledMacro.named(t, CompiledMacro.FIELD, macro, p, ')');
+          break;
+        case '{':
+          i = CompiledMacro.named(t, CompiledMacro.HEADER, macro, p, '}');
+          break;
+        case '%':
+        case '$':
+          i++;
+          CompiledMacro.literal(t, String.valueOf(nc));
+          break;
+        default:
+          i++;
+          t.add(new Token(CompiledMacro.SHORTHAND, null, nc, 0));
+          break;
+      }
+      s = i;
+    }
+    if ((s > 0) && (s < size)) {
+      CompiledMacro.literal(t, macro.substring(s));
+    }
+    tokens = t.toArray(new Token[t.size()]);
+    if (tokens.length == 0) {
+      constant = macro;
+    }
+    else if ((tokens.length == 1) && (tokens[0].kind == CompiledMacro.LITERAL)) {
+      constant = tokens[0].arg;
+    }
+    else {
+      constant = null;
+    }
+    onlyBody = (tokens.length == 1) && (tokens[0].kind == CompiledMacro.BODY);
+    sizeHint = size + 64;
+  }
+
+  // Appends literal text, merging it with the previous literal if any
+  private static void literal(final List<Token> tokens, final String text) {
+    final int last = tokens.size() - 1;
+    if ((last >= 0) && (tokens.get(last).kind == CompiledMacro.LITERAL)) {
+      tokens.set(last, new Token(CompiledMacro.LITERAL, tokens.get(last).arg + text, (char)0, 0));
+    }
+    else {
+      tokens.add(new Token(CompiledMacro.LITERAL, text, (char)0, 0));
+    }
+  }
+
+  // Adds a named token, the name ends at the terminator or at the end of the template
+  private static int named(final List<Token> tokens, final byte kind, final String macro, final int start, final char terminator) {
+    int end = macro.indexOf(terminator, start);
+    if (end < 0) {
+      end = macro.length();
+    }
+    final String name = macro.substring(start, end);
+    switch (kind) {
+      case FIELD:
+        tokens.add(new Token(name.isEmpty() ? CompiledMacro.BODY : CompiledMacro.FIELD, name, (char)0, 0));
+        break;
+      case STATIC:
+        CompiledMacro.resolve(tokens, name);
+        break;
+      default:
+        tokens.add(new Token(kind, name, (char)0, 0));
+        break;
+    }
+    return end + 1;
+  }
+
+  private static void resolve(final List<Token> tokens, final String key) {
+    final int quote = ((key.length() > 2) && (key.charAt(0) == '"')) ? key.indexOf('"', 1) : -1;
+    if (quote > 1) {
+      final String pattern = key.substring(1, quote);
+      final String refresh = key.substring(quote + 1);
+      try {
+        final long now = System.currentTimeMillis();
+        final String value = MacroExpander.formatStatic(pattern, now);
+        if (refresh.isEmpty()) {
+          tokens.add(new Token(CompiledMacro.DATETIME, pattern, (char)0, 0));
+          return;
+        }
+        if (refresh.charAt(0) == '@') {
+          final long period = Long.parseLong(refresh.substring(1).trim()) * 1000;
+          if (period <= 0) {
+            CompiledMacro.literal(tokens, value);
+          }
+          else {
+            final Token token = new Token(CompiledMacro.DATETIME, pattern, (char)0, period);
+            token.value = value;
+            token.expire = now + period;
+            tokens.add(token);
+          }
+          return;
+        }
+      }
+      catch (final Exception e) {
+        CompiledMacro.logger.debug("Invalid datetime macro {}", key, e);
+      }
+    }
+    else {
+      final String value = MacroExpander.resolveStatic(key);
+      if (value != null) {
+        CompiledMacro.literal(tokens, value);
+        return;
+      }
+    }
+    // Unresolved, MacroExpander.replaceStatic will report it when expanded
+    CompiledMacro.logger.warn("Unable to resolve static macro %[{}]", key);
+    tokens.add(new Token(CompiledMacro.STATIC, key, (char)0, 0));
+  }
+
+  /**
+   * @return true if the template always expands to the same text.
+   */
+  public boolean isConstant() {
+    return constant != null;
+  }
+
+  /**
+   * @return the header names the expansion depends on (in template order, no duplicates), null if it
+   *         depends also on body, fields, time or unresolved statics.
+   */
+  public String[] getHeaderKeys() {
+    final List<String> keys = new ArrayList<>();
+    for (final Token token : tokens) {
+      if (token.kind == CompiledMacro.HEADER) {
+        if (!keys.contains(token.arg)) {
+          keys.add(token.arg);
+        }
+      }
+      else if (token.kind != CompiledMacro.LITERAL) { return null; }
+    }
+    return keys.toArray(new String[keys.size()]);
+  }
+
+  /**
+   * Evaluate the program. Parameters have the same meaning of
+   * {@link MacroExpander#expand(String, Map, String, Map, TimeZone, boolean, int, int, boolean)}.
+   */
+  public String expand(final Map<String, String> headers, final String body, final Map<String, Object> fields, final TimeZone timeZone, final boolean needRounding, final int unit, final int roundDown, final boolean useLocalTimeStamp) {
+    if (constant != null) { return constant; }
+    if (onlyBody) { return (body != null) ? body : CompiledMacro.EMPTY; }
+    StringBuilder sb = CompiledMacro.buffer.get();
+    if (sb.capacity() > CompiledMacro.MAX_BUFFER_SIZE) {
+      sb = new StringBuilder(sizeHint);
+      CompiledMacro.buffer.set(sb);
+    }
+    sb.setLength(0);
+    long ts = 0;
+    Object replacement;
+    for (final Token token : tokens) {
+      switch (token.kind) {
+        case LITERAL:
+          sb.append(token.arg);
+          break;
+        case BODY:
+          if (body != null) {
+            sb.append(body);
+          }
+          break;
+        case FIELD:
+          if (fields != null) {
+            replacement = fields.get(token.arg);
+            if (replacement != null) {
+              sb.append(replacement);
+            }
+          }
+          break;
+        case HEADER:
+          if (headers != null) {
+            replacement = headers.get(token.arg);
+            if (replacement != null) {
+              sb.append(replacement);
+            }
+          }
+          break;
+        case STATIC:
+          sb.append(MacroExpander.replaceStatic(token.arg));
+          break;
+        case DATETIME:
+          if (ts == 0) {
+            ts = System.currentTimeMillis();
+          }
+          sb.append(token.datetime(ts));
+          break;
+        case SHORTHAND:
+          if (ts == 0) {
+            ts = System.currentTimeMillis();
+          }
+          sb.append(MacroExpander.replaceShorthand(token.code, headers, timeZone, needRounding, unit, roundDown, useLocalTimeStamp, ts));
+          break;
+      }
+    }
+    return sb.toString();
+  }
+
+  public String expand(final Map<String, String> headers) {
+    return expand(headers, null, null, null, false, 0, 0, false);
+  }
+
+  public String expand(final Map<String, String> headers, final String body) {
+    return expand(headers, body, null, null, false, 0, 0, false);
+  }
+
+  public String expand(final Map<String, String> headers, final String body, final Map<String, Object> fields) {
+    return expand(headers, body, fields, null, false, 0, 0, false);
+  }
+
+  @Override
+  public String toString() {
+    return macro;
+  }
+
+}
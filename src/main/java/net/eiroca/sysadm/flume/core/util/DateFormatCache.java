@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 1999-2021 Enrico Croce - AGPL >= 3.0
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package net.eiroca.sysadm.flume.core.util;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread-safe date formatting for the MacroExpander shorthand escapes.
+ *
+ * Formatters are immutable and shared per (pattern, zone). Each thread also remembers the last
+ * string rendered for every escape together with the time bucket it is valid for (the finest unit
+ * used by the pattern), so events falling in the same second/minute/hour/day reuse it.
+ */
+public final class DateFormatCache {
+
+  private static final int MEMO_SIZE = 128;
+
+  private static final ConcurrentHashMap<ZoneId, ConcurrentHashMap<String, DateTimeFormatter>> formatters = new ConcurrentHashMap<>();
+
+  private static final class Memo {
+
+    TimeZone timeZone;
+    String pattern;
+    long start;
+    long end;
+    String value;
+
+  }
+
+  private static final ThreadLocal<Memo[]> memos = new ThreadLocal<Memo[]>() {
+
+    @Override
+    protected Memo[] initialValue() {
+      return new Memo[DateFormatCache.MEMO_SIZE];
+    }
+
+  };
+
+  private DateFormatCache() {
+  }
+
+  public static DateTimeFormatter getFormatter(final String pattern, final ZoneId zone) {
+    ConcurrentHashMap<String, DateTimeFormatter> zoneFormatters = DateFormatCache.formatters.get(zone);
+    if (zoneFormatters == null) {
+      zoneFormatters = new ConcurrentHashMap<>();
+      final ConcurrentHashMap<String, DateTimeFormatter> old = DateFormatCache.formatters.putIfAbsent(zone, zoneFormatters);
+      if (old != null) {
+        zoneFormatters = old;
+      }
+    }
+    DateTimeFormatter formatter = zoneFormatters.get(pattern);
+    if (formatter == null) {
+      formatter = DateTimeFormatter.ofPattern(pattern).withZone(zone);
+      zoneFormatters.putIfAbsent(pattern, formatter);
+    }
+    return formatter;
+  }
+
+  /**
+   * Format ts with pattern, reusing the value rendered last time by this thread for the same escape
+   * when ts falls in the same bucket.
+   *
+   * @param code - the escape char, used as memo slot
+   * @param pattern - DateTimeFormatter pattern
+   * @param unit - finest unit rendered by the pattern (MILLIS .. DAYS)
+   * @param timeZone - time zone, null for the default one
+   * @param ts - epoch millis
+   */
+  public static String format(final char code, final String pattern, final ChronoUnit unit, final TimeZone timeZone, final long ts) {
+    final Memo[] slots = DateFormatCache.memos.get();
+    Memo memo = (code < DateFormatCache.MEMO_SIZE) ? slots[code] : null;
+    if ((memo != null) && (memo.timeZone == timeZone) && pattern.equals(memo.pattern) && (ts >= memo.start) && (ts < memo.end)) { return memo.value; }
+    final ZoneId zone = (timeZone != null) ? timeZone.toZoneId() : ZoneId.systemDefault();
+    final ZonedDateTime date = Instant.ofEpochMilli(ts).atZone(zone);
+    final String value = DateFormatCache.getFormatter(pattern, zone).format(date);
+    if (code < DateFormatCache.MEMO_SIZE) {
+      if (memo == null) {
+        memo = new Memo();
+        slots[code] = memo;
+      }
+      final ZonedDateTime start = date.truncatedTo(unit);
+      memo.timeZone = timeZone;
+      memo.pattern = pattern;
+      memo.start = start.toInstant().toEpochMilli();
+      memo.end = start.plus(1, unit).toInstant().toEpochMilli();
+      memo.value = value;
+    }
+    return value;
+  }
+
+}
@@ -21,17 +21,17 @@ import org.apache.flume.Event;
 
 final public class EventSorter implements Comparator<Event> {
 
-  String header;
+  CompiledMacro header;
 
   public EventSorter(final String header) {
-    this.header = header;
+    this.header = CompiledMacro.compile(header);
   }
 
   @Override
   public int compare(final Event lhs, final Event rhs) {
     // -1 - less than, 1 - greater than, 0 - equal, all inverted for descending
-    final String l = MacroExpander.expand(header, lhs.getHeaders());
-    final String r = MacroExpander.expand(header, rhs.getHeaders());
+    final String l = header.expand(lhs.getHeaders());
+    final String r = header.expand(rhs.getHeaders());
     return l.compareTo(r);
   }
 }
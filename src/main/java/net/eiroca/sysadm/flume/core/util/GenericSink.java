@@ -15,7 +15,13 @@
  **/
 package net.eiroca.sysadm.flume.core.util;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import org.apache.flume.Channel;
 import org.apache.flume.ChannelException;
 import org.apache.flume.Context;
@@ -48,21 +54,50 @@ abstract public class GenericSink<T extends GenericSinkContext<?>> extends Abstr
     OK, IGNORED, ERROR, STOP
   }
 
+  /**
+   * Outcome of the decode stage of an event, computed on the shared pool when parallelism is
+   * enabled.
+   */
+  protected static class PreparedEvent {
+
+    final Event event;
+    String body;
+    Exception error;
+
+    PreparedEvent(final Event event) {
+      this.event = event;
+    }
+
+  }
+
   protected static final Logger logger = Logs.getLogger();
 
+  // Events decoded per worker each time the parallel path drains the channel
+  private static final int CHUNK_EVENTS = 16;
+
+  private static ForkJoinPool pool;
+
   final protected Parameters params = new Parameters();
   final protected IntegerParameter pBatchSize = new IntegerParameter(params, "batch-size", 100);
   final protected StringParameter pDecoder = new StringParameter(params, "decoder", EventDecoders.registry.defaultName());
   final protected StringParameter pFilter = new StringParameter(params, "filter", null);
   final protected StringParameter pSerializer = new StringParameter(params, "serializer", FormattedSerializer.Builder.class.getName());
+  final protected IntegerParameter pParallelism = new IntegerParameter(params, "parallelism", 1);
+  final protected IntegerParameter pStatsInterval = new IntegerParameter(params, "stats-interval", 60);
 
   protected int batchSize;
+  protected int parallelism;
+  protected long statsInterval;
   protected IEventDecoder<?> decoder;
   protected IEventFilter filter;
   protected String serializerType;
   protected Context serializerContext;
 
   protected SinkCounter sinkCounter;
+  protected SinkStageCounter stageCounter;
+
+  // Set when a parallel batch was rolled back, the next batch runs serially
+  private boolean serialNext = false;
 
   @Override
   public void configure(final Context context) {
@@ -71,8 +106,13 @@ abstract public class GenericSink<T extends GenericSinkContext<?>> extends Abstr
     if (sinkCounter == null) {
       sinkCounter = new SinkCounter(getName());
     }
+    if (stageCounter == null) {
+      stageCounter = new SinkStageCounter("SINKSTAGES." + getName());
+    }
     FlumeHelper.laodConfig(params, context);
     batchSize = pBatchSize.get();
+    parallelism = pParallelism.get();
+    statsInterval = pStatsInterval.get() * 1000L;
     final String decoderType = pDecoder.get();
     decoder = EventDecoders.build(decoderType, context.getParameters(), pDecoder.getName() + ".");
     final String filterType = pFilter.get();
@@ -91,14 +131,17 @@ abstract public class GenericSink<T extends GenericSinkContext<?>> extends Abstr
     super.start();
     GenericSink.logger.debug("Starting {}...", this);
     sinkCounter.start();
+    stageCounter.start();
   }
 
   @Override
   public void stop() {
     GenericSink.logger.debug("Stopping {}...", this);
     sinkCounter.stop();
+    stageCounter.stop();
     GenericSink.logger.debug("Sink stopped");
     GenericSink.logger.info("Sink metrics: {}", sinkCounter);
+    GenericSink.logger.info("Sink stages: process {} processEnd {}", stageCounter.process, stageCounter.processEnd);
   }
 
   @Override
@@ -109,6 +152,7 @@ abstract public class GenericSink<T extends GenericSinkContext<?>> extends Abstr
     final Channel channel = getChannel();
     final Transaction txn = channel.getTransaction();
     int eventsInBatch = 0;
+    int taken = 0;
     T context;
     try {
       context = processBegin();
@@ -120,11 +164,32 @@ abstract public class GenericSink<T extends GenericSinkContext<?>> extends Abstr
     try {
       txn.begin();
       boolean stop = false;
+      final boolean parallel = (parallelism > 1) && !serialNext;
+      serialNext = false;
+      List<PreparedEvent> chunk = null;
+      int next = 0;
+      int unprocessed = 0;
       for (int i = 0; i < batchSize; i++) {
-        final Event event = channel.take();
+        PreparedEvent prepared = null;
+        final Event event;
+        if (parallel) {
+          if ((chunk == null) || (next >= chunk.size())) {
+            chunk = prepareChunk(context, channel, Math.min(batchSize - i, parallelism * GenericSink.CHUNK_EVENTS));
+            next = 0;
+            taken += chunk.size();
+          }
+          prepared = (next < chunk.size()) ? chunk.get(next++) : null;
+          event = (prepared != null) ? prepared.event : null;
+        }
+        else {
+          event = take(channel);
+          if (event != null) {
+            taken++;
+            sinkCounter.incrementEventDrainAttemptCount();
+          }
+        }
         if (event != null) {
-          sinkCounter.incrementEventDrainAttemptCount();
-          switch (processEvent(context, event)) {
+          switch (parallel ? processPrepared(context, prepared) : processEvent(context, event)) {
             case OK: {
               eventsInBatch++;
               break;
@@ -143,6 +208,7 @@ abstract public class GenericSink<T extends GenericSinkContext<?>> extends Abstr
             }
           }
           if (stop) {
+            unprocessed = parallel ? chunk.size() - next : 0;
             break;
           }
         }
@@ -167,7 +233,22 @@ abstract public class GenericSink<T extends GenericSinkContext<?>> extends Abstr
       else {
         status = Status.READY;
       }
-      final ProcessStatus exitStatus = processEnd(context);
+      final long start = System.nanoTime();
+      ProcessStatus exitStatus = processEnd(context);
+      stageCounter.processEnd.recordNanos(System.nanoTime() - start);
+      if (unprocessed > 0) {
+        // Events taken ahead of the stop were never processed, they cannot be committed: the whole
+        // batch is rolled back and retried serially, the processed events of this batch are
+        // delivered again
+        GenericSink.logger.debug("Sink {} stopped with {} decoded events pending, rolling back the batch", getName(), unprocessed);
+        if (exitStatus == ProcessStatus.COMMIT) {
+          exitStatus = ProcessStatus.ROLLBACK;
+        }
+        else if (exitStatus == ProcessStatus.BAKEOFF) {
+          exitStatus = ProcessStatus.FAIL;
+        }
+        serialNext = true;
+      }
       switch (exitStatus) {
         case COMMIT:
           txn.commit();
@@ -199,11 +280,15 @@ abstract public class GenericSink<T extends GenericSinkContext<?>> extends Abstr
     }
     finally {
       elapsed = System.currentTimeMillis() - elapsed;
-      if (eventsInBatch > 0) {
-        GenericSink.logger.info(getName() + " processed " + eventsInBatch + " in " + elapsed);
+      GenericSink.logger.debug("{} processed {} in {}", new Object[] {
+          getName(), eventsInBatch, elapsed
+      });
+      if (taken > 0) {
+        stageCounter.endBatch(eventsInBatch);
       }
-      else {
-        GenericSink.logger.debug(getName() + " processed " + eventsInBatch + " in " + elapsed);
+      final String summary = stageCounter.summary(statsInterval);
+      if (summary != null) {
+        GenericSink.logger.info("{} {}", getName(), summary);
       }
       txn.close();
     }
@@ -218,14 +303,121 @@ abstract public class GenericSink<T extends GenericSinkContext<?>> extends Abstr
     return ProcessStatus.COMMIT;
   }
 
-  public EventStatus processEvent(final T context, final Event event) throws Exception {
+  /**
+   * Drain up to max events then decode them on the shared pool, split in parallelism chunks. Results
+   * keep the channel order. Discard and filters are stateful, they run in
+   * {@link #processPrepared(GenericSinkContext, PreparedEvent)} on the sink thread.
+   */
+  protected List<PreparedEvent> prepareChunk(final T context, final Channel channel, final int max) throws Exception {
+    final List<PreparedEvent> prepared = new ArrayList<>(max);
+    for (int i = 0; i < max; i++) {
+      final Event event = take(channel);
+      if (event == null) {
+        break;
+      }
+      sinkCounter.incrementEventDrainAttemptCount();
+      prepared.add(new PreparedEvent(event));
+    }
+    final int size = prepared.size();
+    if (size < 2) {
+      for (final PreparedEvent p : prepared) {
+        prepareEvent(context, p);
+      }
+      return prepared;
+    }
+    final int chunks = Math.min(parallelism, size);
+    final List<Callable<Void>> tasks = new ArrayList<>(chunks);
+    for (int c = 0; c < chunks; c++) {
+      final List<PreparedEvent> chunk = prepared.subList((c * size) / chunks, ((c + 1) * size) / chunks);
+      tasks.add(new Callable<Void>() {
+
+        @Override
+        public Void call() throws Exception {
+          for (final PreparedEvent p : chunk) {
+            prepareEvent(context, p);
+          }
+          return null;
+        }
+
+      });
+    }
+    for (final Future<Void> result : GenericSink.getPool().invokeAll(tasks)) {
+      try {
+        result.get();
+      }
+      catch (final ExecutionException e) {
+        final Throwable cause = e.getCause();
+        throw (cause instanceof Exception) ? (Exception)cause : e;
+      }
+    }
+    return prepared;
+  }
+
+  protected void prepareEvent(final T context, final PreparedEvent prepared) {
+    try {
+      prepared.body = decodeBody(prepared.event);
+    }
+    catch (final Exception e) {
+      prepared.error = e;
+    }
+  }
+
+  public EventStatus processPrepared(final T context, final PreparedEvent prepared) throws Exception {
     if (discard(context)) { return EventStatus.IGNORED; }
+    final Event event = prepared.event;
     final Map<String, String> headers = event.getHeaders();
-    if (!accept(context, event, headers)) { return EventStatus.IGNORED; }
+    if (!timedAccept(context, event, headers)) { return EventStatus.IGNORED; }
+    if (prepared.error != null) { throw prepared.error; }
+    GenericSink.logger.trace("Processing {}", event);
+    return timedProcess(context, event, headers, prepared.body);
+  }
+
+  private static synchronized ForkJoinPool getPool() {
+    if (GenericSink.pool == null) {
+      GenericSink.pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+    return GenericSink.pool;
+  }
+
+  protected String decodeBody(final Event event) {
+    final long start = System.nanoTime();
     final Object obj = decoder.decode(event);
     final String body = (obj != null) ? String.valueOf(obj) : null;
+    stageCounter.decode.recordNanos(System.nanoTime() - start);
+    return body;
+  }
+
+  private Event take(final Channel channel) {
+    final long start = System.nanoTime();
+    final Event event = channel.take();
+    stageCounter.take.recordNanos(System.nanoTime() - start);
+    return event;
+  }
+
+  private boolean timedAccept(final T context, final Event event, final Map<String, String> headers) {
+    final long start = System.nanoTime();
+    final boolean accepted = accept(context, event, headers);
+    stageCounter.filter.recordNanos(System.nanoTime() - start);
+    return accepted;
+  }
+
+  private EventStatus timedProcess(final T context, final Event event, final Map<String, String> headers, final String body) throws Exception {
+    final long start = System.nanoTime();
+    try {
+      return process(context, event, headers, body);
+    }
+    finally {
+      stageCounter.process.recordNanos(System.nanoTime() - start);
+    }
+  }
+
+  public EventStatus processEvent(final T context, final Event event) throws Exception {
+    if (discard(context)) { return EventStatus.IGNORED; }
+    final Map<String, String> headers = event.getHeaders();
+    if (!timedAccept(context, event, headers)) { return EventStatus.IGNORED; }
+    final String body = decodeBody(event);
     GenericSink.logger.trace("Processing {}", event);
-    return process(context, event, headers, body);
+    return timedProcess(context, event, headers, body);
   }
 
   protected boolean discard(final T context) {
@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 1999-2021 Enrico Croce - AGPL >= 3.0
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package net.eiroca.sysadm.flume.core.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free HDR-style histogram: log2 magnitudes split in 8 linear sub-buckets (values below 16 are
+ * exact), about 12% worst case error. Values are recorded in microseconds.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BITS = 4;
+  private static final int SUB_SIZE = 1 << LatencyHistogram.SUB_BITS;
+  private static final int HALF_SIZE = LatencyHistogram.SUB_SIZE / 2;
+  private static final int BUCKETS = 512;
+
+  private final AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  private static int index(final long value) {
+    final int msb = 63 - Long.numberOfLeadingZeros(value);
+    final int shift = Math.max(0, (msb - LatencyHistogram.SUB_BITS) + 1);
+    return (shift * LatencyHistogram.HALF_SIZE) + (int)(value >>> shift);
+  }
+
+  // Highest value falling in the bucket
+  private static long value(final int index) {
+    if (index < LatencyHistogram.SUB_SIZE) { return index; }
+    final int shift = ((index - LatencyHistogram.SUB_SIZE) / LatencyHistogram.HALF_SIZE) + 1;
+    final long top = index - (shift * LatencyHistogram.HALF_SIZE);
+    return ((top + 1) << shift) - 1;
+  }
+
+  public void recordNanos(final long nanos) {
+    record(nanos / 1000);
+  }
+
+  public void record(long micros) {
+    if (micros < 0) {
+      micros = 0;
+    }
+    counts.incrementAndGet(LatencyHistogram.index(micros));
+    count.incrementAndGet();
+    sum.addAndGet(micros);
+    long old = max.get();
+    while ((micros > old) && !max.compareAndSet(old, micros)) {
+      old = max.get();
+    }
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  public long getMean() {
+    final long n = count.get();
+    return (n > 0) ? sum.get() / n : 0;
+  }
+
+  public long[] snapshot() {
+    final long[] result = new long[LatencyHistogram.BUCKETS];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = counts.get(i);
+    }
+    return result;
+  }
+
+  public long getPercentile(final double percentile) {
+    return LatencyHistogram.percentile(snapshot(), null, percentile);
+  }
+
+  /**
+   * Percentile of the values recorded between two snapshots (since is null for all values).
+   */
+  public static long percentile(final long[] now, final long[] since, final double percentile) {
+    long total = 0;
+    for (int i = 0; i < now.length; i++) {
+      total += now[i] - ((since != null) ? since[i] : 0);
+    }
+    if (total == 0) { return 0; }
+    final long target = Math.max(1, (long)Math.ceil((percentile / 100.0) * total));
+    long seen = 0;
+    for (int i = 0; i < now.length; i++) {
+      seen += now[i] - ((since != null) ? since[i] : 0);
+      if (seen >= target) { return LatencyHistogram.value(i); }
+    }
+    return LatencyHistogram.value(now.length - 1);
+  }
+
+  @Override
+  public String toString() {
+    final long[] now = snapshot();
+    return String.format("count=%d mean=%d p50=%d p90=%d p99=%d max=%d", getCount(), getMean(), LatencyHistogram.percentile(now, null, 50), LatencyHistogram.percentile(now, null, 90), LatencyHistogram.percentile(now, null, 99), getMax());
+  }
+
+}
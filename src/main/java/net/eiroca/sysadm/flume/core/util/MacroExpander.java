@@ -18,13 +18,14 @@ package net.eiroca.sysadm.flume.core.util;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.text.SimpleDateFormat;
+import java.time.temporal.ChronoUnit;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
 import org.slf4j.Logger;
 import net.eiroca.library.core.LibFormat;
-import net.eiroca.library.core.LibStr;
 import net.eiroca.library.system.Logs;
 
 public class MacroExpander {
@@ -35,6 +36,9 @@ public class MacroExpander {
   // %[localhost] -> localhost
   // %[system.property] -> system.property value
   // %["valid SimpleDateFormat"] -> formatted System.millies
+  // %["valid SimpleDateFormat"@N] -> as above, re-resolved every N seconds (0 -> once)
+  //
+  // %[...] macros, except for plain datetime ones, are resolved when the template is compiled
   //
   // %\w -> unix date formatter
   //
@@ -47,6 +51,11 @@ public class MacroExpander {
 
   private static final String EMPTY = "";
 
+  // Programs compiled by expand() for callers without a precompiled template, cleared when full.
+  // Only configured templates belong here, see expandValue()
+  private static final int MAX_COMPILED = 1024;
+  private static final ConcurrentHashMap<String, CompiledMacro> compiled = new ConcurrentHashMap<>();
+
   transient private static final Logger logger = Logs.getLogger();
 
   // ---
@@ -72,7 +81,7 @@ public class MacroExpander {
   /**
    * Not intended as a public API
    */
-  private static String replaceShorthand(final char c, final Map<String, String> headers, final TimeZone timeZone, final boolean needRounding, final int unit, final int roundDown, final boolean useLocalTimestamp, long ts) {
+  static String replaceShorthand(final char c, final Map<String, String> headers, final TimeZone timeZone, final boolean needRounding, final int unit, final int roundDown, final boolean useLocalTimestamp, long ts) {
     if (!useLocalTimestamp) {
       String timestampHeader = null;
       timestampHeader = (headers != null) ? headers.get(MacroExpander.HEADER_TIMESTAMP) : null;
@@ -92,6 +101,7 @@ public class MacroExpander {
     }
     // It's a date
     String formatString = MacroExpander.EMPTY;
+    ChronoUnit formatUnit = ChronoUnit.MILLIS;
     switch (c) {
       case '%':
         return "%";
@@ -99,62 +109,81 @@ public class MacroExpander {
         return "$";
       case '0':
         formatString = "SSS";
+        formatUnit = ChronoUnit.MILLIS;
         break;
       case 'a':
         formatString = "EEE";
+        formatUnit = ChronoUnit.DAYS;
         break;
       case 'A':
         formatString = "EEEE";
+        formatUnit = ChronoUnit.DAYS;
         break;
       case 'b':
         formatString = "MMM";
+        formatUnit = ChronoUnit.DAYS;
         break;
       case 'B':
         formatString = "MMMM";
+        formatUnit = ChronoUnit.DAYS;
         break;
       case 'c':
         formatString = "EEE MMM d HH:mm:ss yyyy";
+        formatUnit = ChronoUnit.SECONDS;
         break;
       case 'd':
         formatString = "dd";
+        formatUnit = ChronoUnit.DAYS;
         break;
       case 'e':
         formatString = "d";
+        formatUnit = ChronoUnit.DAYS;
         break;
       case 'D':
         formatString = "MM/dd/yy";
+        formatUnit = ChronoUnit.DAYS;
         break;
       case 'H':
         formatString = "HH";
+        formatUnit = ChronoUnit.HOURS;
         break;
       case 'I':
         formatString = "hh";
+        formatUnit = ChronoUnit.HOURS;
         break;
       case 'j':
         formatString = "DDD";
+        formatUnit = ChronoUnit.DAYS;
         break;
       case 'k':
         formatString = "H";
+        formatUnit = ChronoUnit.HOURS;
         break;
       case 'l':
         formatString = "h";
+        formatUnit = ChronoUnit.HOURS;
         break;
       case 'm':
         formatString = "MM";
+        formatUnit = ChronoUnit.DAYS;
         break;
       case 'M':
         formatString = "mm";
+        formatUnit = ChronoUnit.MINUTES;
         break;
       case 'n':
         formatString = "M";
+        formatUnit = ChronoUnit.DAYS;
         break;
       case 'p':
         formatString = "a";
+        formatUnit = ChronoUnit.HOURS;
         break;
       case 's':
         return MacroExpander.EMPTY + (ts / 1000);
       case 'S':
         formatString = "ss";
+        formatUnit = ChronoUnit.SECONDS;
         break;
       case 't':
         // This is different from unix date (which would insert a tab character
@@ -162,54 +191,57 @@ public class MacroExpander {
         return String.valueOf(ts);
       case 'y':
         formatString = "yy";
+        formatUnit = ChronoUnit.DAYS;
         break;
       case 'Y':
         formatString = "yyyy";
+        formatUnit = ChronoUnit.DAYS;
         break;
       case 'z':
         formatString = "z";
+        formatUnit = ChronoUnit.HOURS;
         break;
       case 'Z':
         formatString = "Z";
+        formatUnit = ChronoUnit.HOURS;
         break;
       default:
         MacroExpander.logger.warn("Unrecognized escape in event format string: %" + c);
         return MacroExpander.EMPTY;
     }
-    final SimpleDateFormat format = LibFormat.getSimpleDateFormat(formatString);
-    if (timeZone != null) {
-      format.setTimeZone(timeZone);
-    }
-    else {
-      format.setTimeZone(TimeZone.getDefault());
-    }
-    final Date date = new Date(ts);
-    return format.format(date);
+    return DateFormatCache.format(c, formatString, formatUnit, timeZone, ts);
   }
 
   /**
    * Not intended as a public API
    */
-  private static String replaceStatic(final String key) {
-    String replacementString = null;
-    try {
-      final boolean isDatetime = (key.length() > 2) && key.startsWith("\"") && key.endsWith("\"");
-      if (isDatetime) {
-        MacroExpander.logger.error("Processing datetime: " + key.substring(1, key.length() - 1));
-        final SimpleDateFormat format = LibFormat.getSimpleDateFormat(key.substring(1, key.length() - 1));
-        replacementString = format.format(new Date());
+  static String resolveStatic(final String key) {
+    String replacementString = MacroExpander.GLOBALS.get(key.toLowerCase());
+    if (replacementString == null) {
+      try {
+        replacementString = System.getProperty(key);
       }
-      else {
-        replacementString = MacroExpander.GLOBALS.get(key.toLowerCase());
-        if (replacementString == null) {
-          MacroExpander.logger.error("Processing property: " + key);
-          replacementString = System.getProperty(key);
-        }
+      catch (final Exception e) {
+        replacementString = null;
       }
     }
-    catch (final Exception e) {
-      replacementString = null;
-    }
+    MacroExpander.logger.debug("Static {} -> {}", key, replacementString);
+    return replacementString;
+  }
+
+  /**
+   * Not intended as a public API
+   */
+  static String formatStatic(final String pattern, final long ts) {
+    final SimpleDateFormat format = LibFormat.getSimpleDateFormat(pattern);
+    return format.format(new Date(ts));
+  }
+
+  /**
+   * Not intended as a public API
+   */
+  static String replaceStatic(final String key) {
+    final String replacementString = MacroExpander.resolveStatic(key);
     if (replacementString == null) { throw new RuntimeException("MacroExpander wasn't able to parse the static escape sequence '" + key + "'"); }
     return replacementString;
   }
@@ -230,95 +262,33 @@ public class MacroExpander {
    */
   public static String expand(final String macro, final Map<String, String> headers, final String body, final Map<String, Object> fields, final TimeZone timeZone, final boolean needRounding, final int unit, final int roundDown, final boolean useLocalTimeStamp) {
     if (macro == null) { return null; }
-    if (macro.equals("%()")) { return (body != null) ? body : MacroExpander.EMPTY; }
-    final long ts = System.currentTimeMillis();
-    int i = 0, p = 0, s = 0;
-    char ch, nc, c;
-    String name;
-    Object replacement;
-    final int size = macro.length();
-    final StringBuilder sb = new StringBuilder(size + 64);
-    while (i < size) {
-      ch = macro.charAt(i);
-      if (ch == '%') {
-        if (s < i) {
-          sb.append(macro, s, i);
-        }
-        i++;
-        nc = macro.charAt(i);
-        p = i + 1;
-        switch (nc) {
-          case '[':
-            i++;
-            while (i < size) {
-              c = macro.charAt(i);
-              i++;
-              if (c == ']') {
-                break;
-              }
-            }
-            name = macro.substring(p, i - 1);
-            sb.append(MacroExpander.replaceStatic(name));
-            break;
-          case '(':
-            i++;
-            while (i < size) {
-              c = macro.charAt(i);
-              i++;
-              if (c == ')') {
-                break;
-              }
-            }
-            name = macro.substring(p, i - 1);
-            if (LibStr.isEmptyOrNull(name)) {
-              if (body != null) {
-                sb.append(body);
-              }
-            }
-            else if (fields != null) {
-              replacement = fields.get(name);
-              if (replacement != null) {
-                sb.append(replacement);
-              }
-            }
-            break;
-          case '{':
-            i++;
-            while (i < size) {
-              c = macro.charAt(i);
-              i++;
-              if (c == '}') {
-                break;
-              }
-            }
-            name = macro.substring(p, i - 1);
-            replacement = headers.get(name);
-            if (replacement != null) {
-              sb.append(replacement);
-            }
-            break;
-          default:
-            i++;
-            sb.append(MacroExpander.replaceShorthand(nc, headers, timeZone, needRounding, unit, roundDown, useLocalTimeStamp, ts));
-            break;
-        }
-        s = i;
+    // no macro, nothing to expand
+    if (macro.indexOf('%') < 0) { return macro; }
+    CompiledMacro program = MacroExpander.compiled.get(macro);
+    if (program == null) {
+      program = CompiledMacro.compile(macro);
+      if (MacroExpander.compiled.size() >= MacroExpander.MAX_COMPILED) {
+        MacroExpander.compiled.clear();
       }
-      else {
-        i++;
-      }
-    }
-    if (s == 0) { return macro; }
-    if (s < i) {
-      sb.append(macro, s, i);
+      MacroExpander.compiled.put(macro, program);
     }
-    return sb.toString();
+    return program.expand(headers, body, fields, timeZone, needRounding, unit, roundDown, useLocalTimeStamp);
   }
 
   public static String expand(final String macro, final Map<String, String> headers) {
     return MacroExpander.expand(macro, headers, null, null, null, false, 0, 0, false);
   }
 
+  /**
+   * Expands text taken from the event (e.g. an extracted value), compiling it without going through
+   * the program cache: those values change with every event and would only evict the templates.
+   */
+  public static String expandValue(final String value, final Map<String, String> headers, final String body) {
+    if (value == null) { return null; }
+    if (value.indexOf('%') < 0) { return value; }
+    return CompiledMacro.compile(value).expand(headers, body);
+  }
+
   public static String expand(final String macro, final Map<String, String> headers, final String body) {
     return MacroExpander.expand(macro, headers, body, null, null, false, 0, 0, false);
   }
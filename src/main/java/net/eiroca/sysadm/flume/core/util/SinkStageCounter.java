@@ -0,0 +1,164 @@
+/**
+ * Copyright (C) 1999-2021 Enrico Croce - AGPL >= 3.0
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package net.eiroca.sysadm.flume.core.util;
+
+import org.apache.flume.instrumentation.MonitoredCounterGroup;
+
+/**
+ * Per stage latency (microseconds) of a {@link GenericSink}, registered over JMX next to its
+ * SinkCounter as p50/p99/max of all the recorded values. Throughputs are events/batches per second
+ * measured on the last summary interval.
+ */
+public class SinkStageCounter extends MonitoredCounterGroup implements SinkStageCounterMBean {
+
+  private static final String EVENT_THROUGHPUT = "event_throughput";
+  private static final String BATCH_THROUGHPUT = "batch_throughput";
+
+  private static final String[] ATTRIBUTES = {
+      SinkStageCounter.EVENT_THROUGHPUT, SinkStageCounter.BATCH_THROUGHPUT
+  };
+
+  public final LatencyHistogram take = new LatencyHistogram();
+  public final LatencyHistogram decode = new LatencyHistogram();
+  public final LatencyHistogram filter = new LatencyHistogram();
+  public final LatencyHistogram process = new LatencyHistogram();
+  public final LatencyHistogram processEnd = new LatencyHistogram();
+
+  private long lastSummary = System.currentTimeMillis();
+  private long lastEvents;
+  private long lastBatches;
+  private long events;
+  private long batches;
+  private long[] lastProcess = process.snapshot();
+  private long[] lastProcessEnd = processEnd.snapshot();
+
+  public SinkStageCounter(final String name) {
+    super(MonitoredCounterGroup.Type.SINK, name, SinkStageCounter.ATTRIBUTES);
+  }
+
+  @Override
+  public long getTakeLatencyP50() {
+    return take.getPercentile(50);
+  }
+
+  @Override
+  public long getTakeLatencyP99() {
+    return take.getPercentile(99);
+  }
+
+  @Override
+  public long getTakeLatencyMax() {
+    return take.getMax();
+  }
+
+  @Override
+  public long getDecodeLatencyP50() {
+    return decode.getPercentile(50);
+  }
+
+  @Override
+  public long getDecodeLatencyP99() {
+    return decode.getPercentile(99);
+  }
+
+  @Override
+  public long getDecodeLatencyMax() {
+    return decode.getMax();
+  }
+
+  @Override
+  public long getFilterLatencyP50() {
+    return filter.getPercentile(50);
+  }
+
+  @Override
+  public long getFilterLatencyP99() {
+    return filter.getPercentile(99);
+  }
+
+  @Override
+  public long getFilterLatencyMax() {
+    return filter.getMax();
+  }
+
+  @Override
+  public long getProcessLatencyP50() {
+    return process.getPercentile(50);
+  }
+
+  @Override
+  public long getProcessLatencyP99() {
+    return process.getPercentile(99);
+  }
+
+  @Override
+  public long getProcessLatencyMax() {
+    return process.getMax();
+  }
+
+  @Override
+  public long getProcessEndLatencyP50() {
+    return processEnd.getPercentile(50);
+  }
+
+  @Override
+  public long getProcessEndLatencyP99() {
+    return processEnd.getPercentile(99);
+  }
+
+  @Override
+  public long getProcessEndLatencyMax() {
+    return processEnd.getMax();
+  }
+
+  @Override
+  public long getEventThroughput() {
+    return get(SinkStageCounter.EVENT_THROUGHPUT);
+  }
+
+  @Override
+  public long getBatchThroughput() {
+    return get(SinkStageCounter.BATCH_THROUGHPUT);
+  }
+
+  public void endBatch(final int eventsInBatch) {
+    events += eventsInBatch;
+    batches++;
+  }
+
+  /**
+   * @return a summary of the interval since the previous call, null if it is not yet elapsed.
+   */
+  public String summary(final long interval) {
+    final long now = System.currentTimeMillis();
+    final long elapsed = now - lastSummary;
+    if (elapsed < interval) { return null; }
+    final long deltaEvents = events - lastEvents;
+    final long deltaBatches = batches - lastBatches;
+    set(SinkStageCounter.EVENT_THROUGHPUT, (deltaEvents * 1000) / Math.max(1, elapsed));
+    set(SinkStageCounter.BATCH_THROUGHPUT, (deltaBatches * 1000) / Math.max(1, elapsed));
+    final long[] nowProcess = process.snapshot();
+    final long[] nowProcessEnd = processEnd.snapshot();
+    final String result = String.format("%d event(s) in %d batch(es) in %d ms, process p50=%dus p99=%dus, processEnd p50=%dus p99=%dus", deltaEvents, deltaBatches, elapsed, LatencyHistogram.percentile(nowProcess, lastProcess, 50), LatencyHistogram.percentile(nowProcess, lastProcess, 99), LatencyHistogram.percentile(nowProcessEnd, lastProcessEnd, 50), LatencyHistogram.percentile(nowProcessEnd, lastProcessEnd, 99));
+    lastSummary = now;
+    lastEvents = events;
+    lastBatches = batches;
+    lastProcess = nowProcess;
+    lastProcessEnd = nowProcessEnd;
+    return result;
+  }
+
+}
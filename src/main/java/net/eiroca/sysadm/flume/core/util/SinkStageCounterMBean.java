@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 1999-2021 Enrico Croce - AGPL >= 3.0
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package net.eiroca.sysadm.flume.core.util;
+
+public interface SinkStageCounterMBean {
+
+  public long getTakeLatencyP50();
+
+  public long getTakeLatencyP99();
+
+  public long getTakeLatencyMax();
+
+  public long getDecodeLatencyP50();
+
+  public long getDecodeLatencyP99();
+
+  public long getDecodeLatencyMax();
+
+  public long getFilterLatencyP50();
+
+  public long getFilterLatencyP99();
+
+  public long getFilterLatencyMax();
+
+  public long getProcessLatencyP50();
+
+  public long getProcessLatencyP99();
+
+  public long getProcessLatencyMax();
+
+  public long getProcessEndLatencyP50();
+
+  public long getProcessEndLatencyP99();
+
+  public long getProcessEndLatencyMax();
+
+  public long getEventThroughput();
+
+  public long getBatchThroughput();
+
+}
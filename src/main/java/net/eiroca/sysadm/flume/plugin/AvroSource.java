@@ -17,10 +17,9 @@ import java.security.KeyStore;
 import java.security.Security;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -34,6 +33,7 @@ import org.apache.avro.ipc.Server;
 import org.apache.avro.ipc.specific.SpecificResponder;
 import org.apache.flume.Channel;
 import org.apache.flume.ChannelException;
+import org.apache.flume.ChannelFullException;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
 import org.apache.flume.EventDrivenSource;
@@ -42,7 +42,6 @@ import org.apache.flume.Source;
 import org.apache.flume.conf.Configurable;
 import org.apache.flume.conf.Configurables;
 import org.apache.flume.conf.LogPrivacyUtil;
-import org.apache.flume.event.EventBuilder;
 import org.apache.flume.instrumentation.SourceCounter;
 import org.apache.flume.source.AbstractSource;
 import org.apache.flume.source.avro.AvroFlumeEvent;
@@ -54,6 +53,7 @@ import org.jboss.netty.channel.Channels;
 import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
 import org.jboss.netty.handler.codec.compression.ZlibDecoder;
 import org.jboss.netty.handler.codec.compression.ZlibEncoder;
+import org.jboss.netty.handler.execution.ExecutionHandler;
 import org.jboss.netty.handler.ipfilter.IpFilterRule;
 import org.jboss.netty.handler.ipfilter.IpFilterRuleHandler;
 import org.jboss.netty.handler.ipfilter.PatternRule;
@@ -63,6 +63,9 @@ import org.slf4j.LoggerFactory;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.eiroca.sysadm.flume.util.avro.AvroEventConverter;
+import net.eiroca.sysadm.flume.util.avro.AvroHandlerPool;
+import net.eiroca.sysadm.flume.util.avro.AvroServerCounter;
 
 /**
  * <p>
@@ -105,22 +108,53 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
  * <td>none (required)</td>
  * </tr>
  * <tr>
+ * <td><tt>boss-threads</tt></td>
+ * <td>Number of threads accepting connections</td>
+ * <td>Count / int</td>
+ * <td>1(optional)</td>
+ * </tr>
+ * <tr>
  * <td><tt>threads</tt></td>
- * <td>Max number of threads assigned to thread pool, 0 being unlimited</td>
+ * <td>Number of I/O worker threads, 0 being twice the available processors</td>
+ * <td>Count / int</td>
+ * <td>0(optional)</td>
+ * </tr>
+ * <tr>
+ * <td><tt>handler-threads</tt></td>
+ * <td>Number of threads handling the requests, 0 to handle them in the I/O workers</td>
  * <td>Count / int</td>
  * <td>0(optional)</td>
  * </tr>
+ * <tr>
+ * <td><tt>handler-queue-bytes</tt></td>
+ * <td>Max size of the requests waiting for a handler thread, the I/O workers stop reading when it is
+ * reached</td>
+ * <td>Bytes / long</td>
+ * <td>64MB(optional)</td>
+ * </tr>
+ * <tr>
+ * <td><tt>shed-backoff</tt></td>
+ * <td>After the channel reported to be full, requests are refused (FAILED) for this time without
+ * trying the channel, 0 to disable</td>
+ * <td>ms / long</td>
+ * <td>0(optional)</td>
+ * </tr>
  * </table>
  * <p>
  * <b>Metrics</b>
  * </p>
  * <p>
- * TODO
+ * Besides the {@link SourceCounter}, the "AVRO." + name counter group reports pool sizes, handler
+ * pool usage and queue depth, requests in flight and shed (see {@link AvroServerCounter}).
  * </p>
  */
 public class AvroSource extends AbstractSource implements EventDrivenSource, Configurable, AvroSourceProtocol {
 
   private static final String THREADS = "threads";
+  private static final String BOSS_THREADS = "boss-threads";
+  private static final String HANDLER_THREADS = "handler-threads";
+  private static final String HANDLER_QUEUE_BYTES = "handler-queue-bytes";
+  private static final String SHED_BACKOFF = "shed-backoff";
 
   private static final Logger logger = LoggerFactory.getLogger(AvroSource.class);
 
@@ -149,6 +183,14 @@ public class AvroSource extends AbstractSource implements EventDrivenSource, Con
   private SourceCounter sourceCounter;
 
   private int maxThreads;
+  private int bossThreads;
+  private int workerThreads;
+  private int handlerThreads;
+  private long handlerQueueBytes;
+  private long shedBackoff;
+  private volatile long saturatedUntil;
+  private ExecutionHandler executionHandler;
+  private AvroServerCounter serverCounter;
   private ScheduledExecutorService connectionCountUpdater;
 
   private List<IpFilterRule> rules;
@@ -165,6 +207,10 @@ public class AvroSource extends AbstractSource implements EventDrivenSource, Con
     catch (final NumberFormatException e) {
       AvroSource.logger.warn("AVRO source\'s \"threads\" property must specify an integer value.", context.getString(AvroSource.THREADS));
     }
+    bossThreads = Math.max(1, context.getInteger(AvroSource.BOSS_THREADS, 1));
+    handlerThreads = context.getInteger(AvroSource.HANDLER_THREADS, 0);
+    handlerQueueBytes = context.getLong(AvroSource.HANDLER_QUEUE_BYTES, 64L * 1024 * 1024);
+    shedBackoff = context.getLong(AvroSource.SHED_BACKOFF, 0L);
     enableSsl = context.getBoolean(AvroSource.SSL_KEY, false);
     keystore = context.getString(AvroSource.KEYSTORE_KEY);
     keystorePassword = context.getString(AvroSource.KEYSTORE_PASSWORD_KEY);
@@ -203,6 +249,9 @@ public class AvroSource extends AbstractSource implements EventDrivenSource, Con
     if (sourceCounter == null) {
       sourceCounter = new SourceCounter(getName());
     }
+    if (serverCounter == null) {
+      serverCounter = new AvroServerCounter("AVRO." + getName());
+    }
   }
 
   @Override
@@ -211,7 +260,11 @@ public class AvroSource extends AbstractSource implements EventDrivenSource, Con
     final Responder responder = new SpecificResponder(AvroSourceProtocol.class, this);
     final NioServerSocketChannelFactory socketChannelFactory = initSocketChannelFactory();
     final ChannelPipelineFactory pipelineFactory = initChannelPipelineFactory();
-    server = new NettyServer(responder, new InetSocketAddress(bindAddress, port), socketChannelFactory, pipelineFactory, null);
+    executionHandler = initExecutionHandler();
+    // start() resets the counters, the in flight requests are counted as soon as the server starts
+    serverCounter.start();
+    serverCounter.setThreads(bossThreads, workerThreads, (executionHandler != null) ? (AvroHandlerPool)executionHandler.getExecutor() : null);
+    server = new NettyServer(responder, new InetSocketAddress(bindAddress, port), socketChannelFactory, pipelineFactory, executionHandler);
     connectionCountUpdater = Executors.newSingleThreadScheduledExecutor();
     server.start();
     sourceCounter.start();
@@ -223,16 +276,36 @@ public class AvroSource extends AbstractSource implements EventDrivenSource, Con
   }
 
   private NioServerSocketChannelFactory initSocketChannelFactory() {
-    NioServerSocketChannelFactory socketChannelFactory;
-    if (maxThreads <= 0) {
-      socketChannelFactory = new NioServerSocketChannelFactory(Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("AvroSource " + NettyTransceiver.class.getSimpleName() + " Boss-%d").build()),
-          Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("AvroSource " + NettyTransceiver.class.getSimpleName() + " I/O Worker-%d").build()));
+    // fixed pools, a reconnect storm must not grow the thread count
+    workerThreads = (maxThreads > 0) ? maxThreads : Runtime.getRuntime().availableProcessors() * 2;
+    final ExecutorService bossPool = Executors.newFixedThreadPool(bossThreads, new ThreadFactoryBuilder().setNameFormat("AvroSource " + NettyTransceiver.class.getSimpleName() + " Boss-%d").build());
+    final ExecutorService workerPool = Executors.newFixedThreadPool(workerThreads, new ThreadFactoryBuilder().setNameFormat("AvroSource " + NettyTransceiver.class.getSimpleName() + " I/O Worker-%d").build());
+    return new NioServerSocketChannelFactory(bossPool, bossThreads, workerPool, workerThreads);
+  }
+
+  private ExecutionHandler initExecutionHandler() {
+    if (handlerThreads <= 0) { return null; }
+    // per connection ordering, the I/O workers block when handlerQueueBytes are waiting
+    final AvroHandlerPool handlerPool = new AvroHandlerPool(handlerThreads, handlerQueueBytes, 30, TimeUnit.SECONDS, new ThreadFactoryBuilder().setNameFormat("AvroSource " + getName() + " Handler-%d").build());
+    return new ExecutionHandler(handlerPool);
+  }
+
+  /**
+   * @return true if the request must be refused because the channel was recently full.
+   */
+  private boolean shed() {
+    if ((shedBackoff > 0) && (System.currentTimeMillis() < saturatedUntil)) {
+      serverCounter.shed();
+      return true;
     }
-    else {
-      socketChannelFactory = new NioServerSocketChannelFactory(Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("AvroSource " + NettyTransceiver.class.getSimpleName() + " Boss-%d").build()),
-          Executors.newFixedThreadPool(maxThreads, new ThreadFactoryBuilder().setNameFormat("AvroSource " + NettyTransceiver.class.getSimpleName() + "  I/O Worker-%d").build()));
+    return false;
+  }
+
+  private void checkSaturated(final Throwable t) {
+    if ((shedBackoff > 0) && (t instanceof ChannelFullException)) {
+      saturatedUntil = System.currentTimeMillis() + shedBackoff;
+      serverCounter.saturated();
     }
-    return socketChannelFactory;
   }
 
   private ChannelPipelineFactory initChannelPipelineFactory() {
@@ -257,7 +330,12 @@ public class AvroSource extends AbstractSource implements EventDrivenSource, Con
     catch (final InterruptedException e) {
       AvroSource.logger.info("Avro source " + getName() + ": Interrupted while waiting for Avro server to stop. Exiting. Exception follows.", e);
     }
+    if (executionHandler != null) {
+      executionHandler.releaseExternalResources();
+      executionHandler = null;
+    }
     sourceCounter.stop();
+    serverCounter.stop();
     connectionCountUpdater.shutdown();
     while (!connectionCountUpdater.isTerminated()) {
       try {
@@ -277,17 +355,6 @@ public class AvroSource extends AbstractSource implements EventDrivenSource, Con
     return String.format("Avro source %s: { bindAddress: %s, port: %d }", getName(), bindAddress, port);
   }
 
-  /**
-   * Helper function to convert a map of CharSequence to a map of String.
-   */
-  private static Map<String, String> toStringMap(final Map<CharSequence, CharSequence> charSeqMap) {
-    final Map<String, String> stringMap = new HashMap<>();
-    for (final Map.Entry<CharSequence, CharSequence> entry : charSeqMap.entrySet()) {
-      stringMap.put(entry.getKey().toString(), entry.getValue().toString());
-    }
-    return stringMap;
-  }
-
   @Override
   public Status append(final AvroFlumeEvent avroEvent) {
     if (AvroSource.logger.isDebugEnabled()) {
@@ -300,14 +367,20 @@ public class AvroSource extends AbstractSource implements EventDrivenSource, Con
     }
     sourceCounter.incrementAppendReceivedCount();
     sourceCounter.incrementEventReceivedCount();
-    final Event event = EventBuilder.withBody(avroEvent.getBody().array(), AvroSource.toStringMap(avroEvent.getHeaders()));
+    if (shed()) { return Status.FAILED; }
+    serverCounter.requestStarted();
     try {
+      final Event event = AvroEventConverter.toEvent(avroEvent, null);
       getChannelProcessor().processEvent(event);
     }
     catch (final ChannelException ex) {
+      checkSaturated(ex);
       AvroSource.logger.warn("Avro source {}: Unable to process event. Exception follows.", getName(), ex);
       return Status.FAILED;
     }
+    finally {
+      serverCounter.requestCompleted();
+    }
     sourceCounter.incrementAppendAcceptedCount();
     sourceCounter.incrementEventAcceptedCount();
     return Status.OK;
@@ -318,20 +391,25 @@ public class AvroSource extends AbstractSource implements EventDrivenSource, Con
     AvroSource.logger.debug("Avro source {}: Received avro event batch of {} events.", getName(), events.size());
     sourceCounter.incrementAppendBatchReceivedCount();
     sourceCounter.addToEventReceivedCount(events.size());
-    final List<Event> batch = new ArrayList<>();
-    for (final AvroFlumeEvent avroEvent : events) {
-      final Event event = EventBuilder.withBody(avroEvent.getBody().array(), AvroSource.toStringMap(avroEvent.getHeaders()));
-      batch.add(event);
+    if (shed()) {
+      AvroSource.logger.debug("Avro source {}: Channel saturated, batch refused.", getName());
+      return Status.FAILED;
     }
-    AvroSource.logger.debug("Avro source {}: Post processing events.", getName());
+    serverCounter.requestStarted();
     try {
+      final List<Event> batch = AvroEventConverter.toEvents(events);
+      AvroSource.logger.debug("Avro source {}: Post processing events.", getName());
       getChannelProcessor().processEventBatch(batch);
     }
     catch (final Throwable t) {
+      checkSaturated(t);
       AvroSource.logger.error("Avro source {}: Unable to process event batch. Exception follows.", getName(), t);
       if (t instanceof Error) { throw (Error)t; }
       return Status.FAILED;
     }
+    finally {
+      serverCounter.requestCompleted();
+    }
     sourceCounter.incrementAppendBatchAcceptedCount();
     sourceCounter.addToEventAcceptedCount(events.size());
     return Status.OK;
@@ -26,8 +26,8 @@ import net.eiroca.library.config.parameter.IntegerParameter;
 import net.eiroca.library.config.parameter.LongParameter;
 import net.eiroca.library.config.parameter.StringParameter;
 import net.eiroca.library.core.LibStr;
+import net.eiroca.sysadm.flume.core.util.CompiledMacro;
 import net.eiroca.sysadm.flume.core.util.GenericSink;
-import net.eiroca.sysadm.flume.core.util.MacroExpander;
 import net.eiroca.sysadm.flume.util.context.ElasticSinkContext;
 
 public class ElasticSink extends GenericSink<ElasticSinkContext> {
@@ -52,10 +52,10 @@ public class ElasticSink extends GenericSink<ElasticSinkContext> {
   /** Elastic Ingest URL to send events to. */
   String endPoint;
   String auth;
-  String index;
-  String type;
-  String id;
-  String pipeline;
+  CompiledMacro index;
+  CompiledMacro type;
+  CompiledMacro id;
+  CompiledMacro pipeline;
   int queueLimit;
   int bakeoffLimit;
   boolean useEventTime;
@@ -73,14 +73,12 @@ public class ElasticSink extends GenericSink<ElasticSinkContext> {
       final String credential = username + ":" + password;
       auth = Base64.getEncoder().encodeToString(credential.getBytes());
     }
-    index = pIndex.get();
-    type = pType.get();
-    id = pID.get();
-    if (LibStr.isEmptyOrNull(id)) {
-      id = null;
-    }
+    index = CompiledMacro.compile(pIndex.get());
+    type = CompiledMacro.compile(pType.get());
+    final String _id = pID.get();
+    id = LibStr.isEmptyOrNull(_id) ? null : CompiledMacro.compile(_id);
     useEventTime = pUseEventTime.get();
-    pipeline = pPipeline.get();
+    pipeline = CompiledMacro.compile(pPipeline.get());
     final int bulkSize = pBulkSize.get();
     final int threads = pNumThread.get();
     final int version = pVersion.get();
@@ -127,10 +125,10 @@ public class ElasticSink extends GenericSink<ElasticSinkContext> {
   @Override
   protected EventStatus process(final ElasticSinkContext context, final Event event, final Map<String, String> headers, final String body) throws Exception {
     EventStatus result;
-    final String _index = MacroExpander.expand(index, headers, body, null, null, false, 0, 0, !useEventTime).toLowerCase();
-    final String _type = MacroExpander.expand(type, headers, body);
-    final String _id = (id != null) ? MacroExpander.expand(id, headers, body) : null;
-    final String _pipeline = (pipeline != null) ? MacroExpander.expand(pipeline, headers, body) : null;
+    final String _index = index.expand(headers, body, null, null, false, 0, 0, !useEventTime).toLowerCase();
+    final String _type = type.expand(headers, body);
+    final String _id = (id != null) ? id.expand(headers, body) : null;
+    final String _pipeline = (pipeline != null) ? pipeline.expand(headers, body) : null;
     elastic.add(_index, _type, _id, _pipeline, body);
     result = EventStatus.OK;
     return result;
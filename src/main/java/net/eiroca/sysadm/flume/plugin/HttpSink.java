@@ -34,8 +34,8 @@ import com.google.common.collect.ImmutableMap;
 import net.eiroca.library.config.parameter.BooleanParameter;
 import net.eiroca.library.config.parameter.IntegerParameter;
 import net.eiroca.library.config.parameter.StringParameter;
+import net.eiroca.sysadm.flume.core.util.CompiledMacro;
 import net.eiroca.sysadm.flume.core.util.GenericSink;
-import net.eiroca.sysadm.flume.core.util.MacroExpander;
 import net.eiroca.sysadm.flume.util.context.HttpSinkContext;
 
 public class HttpSink extends GenericSink<HttpSinkContext> {
@@ -71,6 +71,7 @@ public class HttpSink extends GenericSink<HttpSinkContext> {
 
   /** Endpoint URL to POST events to. */
   String endPoint;
+  CompiledMacro endPointMacro;
   String method;
 
   /** Actual connection timeout value in use. */
@@ -112,6 +113,7 @@ public class HttpSink extends GenericSink<HttpSinkContext> {
     super.configure(context);
     encoding = pEncoding.get();
     endPoint = pEndPoint.get();
+    endPointMacro = CompiledMacro.compile(endPoint);
     method = pMethod.get();
     connectTimeout = pConnectTimeout.get();
     if (connectTimeout <= 0) { throw new IllegalArgumentException("Connect timeout must be a non-zero and positive"); }
@@ -147,7 +149,7 @@ public class HttpSink extends GenericSink<HttpSinkContext> {
   protected EventStatus process(final HttpSinkContext context, final Event event, final Map<String, String> headers, final String body) throws Exception {
     EventStatus result = EventStatus.OK;
     final CloseableHttpClient httpClient = context.getHttpClient();
-    final String url = MacroExpander.expand(endPoint, headers, body);
+    final String url = endPointMacro.expand(headers, body);
     final StringBuilder reqData = new StringBuilder();
     if (body != null) {
       reqData.append(String.valueOf(body));
@@ -20,6 +20,9 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import org.apache.flume.Context;
 import org.apache.flume.EventDrivenSource;
 import org.apache.flume.conf.Configurable;
@@ -30,12 +33,14 @@ import org.apache.mina.transport.socket.nio.NioSocketAcceptor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import net.eiroca.library.config.Parameters;
 import net.eiroca.library.config.parameter.IntegerParameter;
 import net.eiroca.library.config.parameter.ListParameter;
 import net.eiroca.library.config.parameter.StringParameter;
 import net.eiroca.sysadm.flume.core.util.FlumeHelper;
 import net.eiroca.sysadm.flume.util.tcp.MultiportAcceptor;
+import net.eiroca.sysadm.flume.util.tcp.ReverseDNSCache;
 
 /**
  *
@@ -66,14 +71,30 @@ public class MultiportTCPSource extends AbstractSource implements EventDrivenSou
   final IntegerParameter pReadBufferSize = new IntegerParameter(params, "read-buffer-bytes", 4 * 1024);
   final IntegerParameter pNumProcessor = new IntegerParameter(params, "num-processors", 0);
   final IntegerParameter pIdleTime = new IntegerParameter(params, "idle-time", 10);
+  // Max events per channel transaction
+  final IntegerParameter pBatchSize = new IntegerParameter(params, "batch-size", 100);
+  // Max ms an incomplete batch waits for more events, 0 -> flush at the end of every read
+  final IntegerParameter pBatchLinger = new IntegerParameter(params, "batch-linger", 0);
+  // decode, pass (received bytes as body) or validate (received bytes if valid in encoding)
+  final StringParameter pBodyMode = new StringParameter(params, "body-mode", "decode");
+  // Reverse DNS cache for the hostname/server/domain headers, ttl in seconds (0 -> no cache)
+  final IntegerParameter pDnsCacheSize = new IntegerParameter(params, "dns-cache-size", 1024);
+  final IntegerParameter pDnsCacheTTL = new IntegerParameter(params, "dns-cache-ttl", 300);
 
   private final List<Integer> ports = Lists.newArrayList();
   private String host;
   private NioSocketAcceptor acceptor;
+  private MultiportAcceptor multiportacceptor;
+  private ScheduledExecutorService flushService;
   private int numProcessors;
   private int maxEventSize;
   private int readBufferSize;
   private int idleTime;
+  private int batchSize;
+  private int batchLinger;
+  private MultiportAcceptor.BodyMode bodyMode;
+  private int dnsCacheSize;
+  private int dnsCacheTTL;
   final private HashMap<String, String> headers = new HashMap<>();
   private SourceCounter sourceCounter = null;
   private String encoding;
@@ -102,6 +123,17 @@ public class MultiportTCPSource extends AbstractSource implements EventDrivenSou
     headers.put(pPortHeader.getName(), pPortHeader.get());
     readBufferSize = pReadBufferSize.get();
     idleTime = pIdleTime.get();
+    batchSize = pBatchSize.get();
+    batchLinger = pBatchLinger.get();
+    dnsCacheSize = pDnsCacheSize.get();
+    dnsCacheTTL = pDnsCacheTTL.get();
+    try {
+      bodyMode = MultiportAcceptor.BodyMode.valueOf(pBodyMode.get().trim().toUpperCase());
+    }
+    catch (final Exception e) {
+      MultiportTCPSource.logger.warn("Invalid body-mode {}, using decode", pBodyMode.get());
+      bodyMode = MultiportAcceptor.BodyMode.DECODE;
+    }
     if (sourceCounter == null) {
       sourceCounter = new SourceCounter(getName());
     }
@@ -121,8 +153,23 @@ public class MultiportTCPSource extends AbstractSource implements EventDrivenSou
     acceptor.setReuseAddress(true);
     acceptor.getSessionConfig().setReadBufferSize(readBufferSize);
     acceptor.getSessionConfig().setIdleTime(IdleStatus.BOTH_IDLE, idleTime);
-    final MultiportAcceptor multiportacceptor = new MultiportAcceptor(maxEventSize, getChannelProcessor(), sourceCounter, headers, encoding);
+    multiportacceptor = new MultiportAcceptor(maxEventSize, getChannelProcessor(), sourceCounter, headers, encoding, batchSize, batchLinger, bodyMode, (dnsCacheTTL > 0) ? new ReverseDNSCache(dnsCacheSize, dnsCacheTTL * 1000L) : null);
     acceptor.setHandler(multiportacceptor);
+    if (batchLinger > 0) {
+      flushService = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat(getName() + "-flush-%d").setDaemon(true).build());
+      flushService.scheduleWithFixedDelay(new Runnable() {
+
+        @Override
+        public void run() {
+          try {
+            multiportacceptor.flushExpired();
+          }
+          catch (final Exception e) {
+            MultiportTCPSource.logger.warn("Error flushing batches", e);
+          }
+        }
+      }, batchLinger, batchLinger, TimeUnit.MILLISECONDS);
+    }
     for (final int port : ports) {
       InetSocketAddress addr;
       if (host != null) {
@@ -149,8 +196,19 @@ public class MultiportTCPSource extends AbstractSource implements EventDrivenSou
   @Override
   public void stop() {
     MultiportTCPSource.logger.info("Stopping {}...", this);
+    if (flushService != null) {
+      flushService.shutdown();
+      try {
+        flushService.awaitTermination(5, TimeUnit.SECONDS);
+      }
+      catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      flushService = null;
+    }
     acceptor.unbind();
     acceptor.dispose();
+    multiportacceptor.flushAll();
     sourceCounter.stop();
     super.stop();
     MultiportTCPSource.logger.info("{} stopped. Metrics: {}", this, sourceCounter);
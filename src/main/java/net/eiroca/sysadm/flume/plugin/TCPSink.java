@@ -26,8 +26,8 @@ import org.apache.flume.Event;
 import net.eiroca.library.config.parameter.IntegerParameter;
 import net.eiroca.library.config.parameter.StringParameter;
 import net.eiroca.library.core.Helper;
+import net.eiroca.sysadm.flume.core.util.CompiledMacro;
 import net.eiroca.sysadm.flume.core.util.GenericSink;
-import net.eiroca.sysadm.flume.core.util.MacroExpander;
 import net.eiroca.sysadm.flume.core.util.context.BufferedSinkContext;
 import net.eiroca.sysadm.flume.core.util.context.KeyedSinkContext;
 import net.eiroca.sysadm.flume.util.ServerConnection;
@@ -41,7 +41,7 @@ public class TCPSink extends GenericSink<KeyedSinkContext<SocketAddress>> {
 
   private final Map<SocketAddress, ServerConnection> connections = new HashMap<>();
 
-  private String serverFormat;
+  private CompiledMacro serverFormat;
   Integer connectionRetries;
   Integer connectionTimeout;
   Integer connectionRetryDelay;
@@ -49,7 +49,7 @@ public class TCPSink extends GenericSink<KeyedSinkContext<SocketAddress>> {
   @Override
   public void configure(final Context context) {
     super.configure(context);
-    serverFormat = pServer.get();
+    serverFormat = CompiledMacro.compile(pServer.get());
     connectionRetries = pConnectionRetries.get();
     connectionTimeout = pConnectionTimeout.get() * 1000;
     connectionRetryDelay = pConnectionRetryDelay.get() * 1000;
@@ -73,7 +73,7 @@ public class TCPSink extends GenericSink<KeyedSinkContext<SocketAddress>> {
   @Override
   protected EventStatus process(final KeyedSinkContext<SocketAddress> context, final Event event, final Map<String, String> headers, final String body) throws Exception {
     GenericSink.logger.trace("processEvent()");
-    final String serverName = MacroExpander.expand(serverFormat, headers, body);
+    final String serverName = serverFormat.expand(headers, body);
     final SocketAddress server = Helper.getServer(serverName);
     context.append(server, event);
     return EventStatus.OK;
@@ -28,8 +28,8 @@ import net.eiroca.library.config.parameter.BooleanParameter;
 import net.eiroca.library.config.parameter.IntegerParameter;
 import net.eiroca.library.config.parameter.StringParameter;
 import net.eiroca.library.core.LibStr;
+import net.eiroca.sysadm.flume.core.util.CompiledMacro;
 import net.eiroca.sysadm.flume.core.util.GenericSink;
-import net.eiroca.sysadm.flume.core.util.MacroExpander;
 import net.eiroca.sysadm.flume.core.util.PriorityHelper;
 import net.eiroca.sysadm.flume.core.util.context.GenericSinkContext;
 
@@ -43,10 +43,10 @@ public class TraceSink extends GenericSink<GenericSinkContext<?>> {
   final private IntegerParameter pPriorityDefault = new IntegerParameter(params, "priority-default", PriorityHelper.DEFAULT_PRIORITY);
   final private StringParameter pPriorityMapping = new StringParameter(params, "priority-mapping", PriorityHelper.DEFAULT_PRIORITY_MAPPING);
 
-  private String logName;
+  private CompiledMacro logName;
   private String defLogName;
   private boolean logHeader;
-  private String logMessage;
+  private CompiledMacro logMessage;
   private final PriorityHelper priorityHelper = new PriorityHelper();
 
   private final HashMap<String, Logger> loggers = new HashMap<>();
@@ -54,10 +54,10 @@ public class TraceSink extends GenericSink<GenericSinkContext<?>> {
   @Override
   public void configure(final Context context) {
     super.configure(context);
-    logName = pTraceLogger.get();
+    logName = CompiledMacro.compile(pTraceLogger.get());
     defLogName = pTraceLoggerDefault.get();
     logHeader = pTraceHeader.get();
-    logMessage = pTraceMessage.get();
+    logMessage = CompiledMacro.compile(pTraceMessage.get());
     priorityHelper.source = pPrioritySource.get();
     priorityHelper.priorityDefault = pPriorityDefault.get();
     priorityHelper.setPriorityMapping(pPriorityMapping.get());
@@ -105,12 +105,12 @@ public class TraceSink extends GenericSink<GenericSinkContext<?>> {
   }
 
   public String getMessage(final Map<String, String> headers, final String body) {
-    final String _message = MacroExpander.expand(logMessage, headers, body);
+    final String _message = logMessage.expand(headers, body);
     return _message;
   }
 
   public Logger getLogger(final Map<String, String> headers, final String body) {
-    String _loggerName = MacroExpander.expand(logName, headers, body);
+    String _loggerName = logName.expand(headers, body);
     if (LibStr.isEmptyOrNull(_loggerName)) {
       _loggerName = defLogName;
     }
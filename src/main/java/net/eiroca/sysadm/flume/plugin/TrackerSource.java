@@ -43,6 +43,8 @@ public class TrackerSource extends AbstractSource implements PollableSource, Con
 
   private SourceCounter sourceCounter;
   private final TrackerManager manager = new TrackerManager();
+  // Serializes the batches of concurrent readers, held for a single attempt only (not while backing off)
+  private final Object channelLock = new Object();
 
   final transient private Parameters params = new Parameters();
   final transient private LongParameter pBackoffSleepIncrement = new LongParameter(params, PollableSourceConstants.BACKOFF_SLEEP_INCREMENT, PollableSourceConstants.DEFAULT_BACKOFF_SLEEP_INCREMENT);
@@ -141,7 +143,9 @@ public class TrackerSource extends AbstractSource implements PollableSource, Con
     int retryInterval = minRetryInterval;
     while (retry < maxRetries) {
       try {
-        getChannelProcessor().processEventBatch(events);
+        synchronized (channelLock) {
+          getChannelProcessor().processEventBatch(events);
+        }
         success = true;
         break;
       }
@@ -16,17 +16,21 @@
  **/
 package net.eiroca.sysadm.flume.plugin;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
 import org.apache.flume.interceptor.Interceptor;
 import org.slf4j.Logger;
+import com.google.common.util.concurrent.Uninterruptibles;
 import net.eiroca.library.config.Parameters;
+import net.eiroca.library.config.parameter.IntegerParameter;
 import net.eiroca.library.config.parameter.ListParameter;
 import net.eiroca.library.config.parameter.StringParameter;
 import net.eiroca.library.core.Helper;
@@ -36,12 +40,16 @@ import net.eiroca.library.data.Tags;
 import net.eiroca.library.system.Logs;
 import net.eiroca.sysadm.flume.api.IExtractor;
 import net.eiroca.sysadm.flume.core.actions.Actions;
+import net.eiroca.sysadm.flume.core.util.CompiledMacro;
 import net.eiroca.sysadm.flume.core.util.EventSorter;
 import net.eiroca.sysadm.flume.core.util.FlumeHelper;
 import net.eiroca.sysadm.flume.core.util.LicenseCheck;
-import net.eiroca.sysadm.flume.core.util.MacroExpander;
 import net.eiroca.sysadm.flume.type.action.ActionExtractor;
+import net.eiroca.sysadm.flume.util.interceptors.BodyTransformer;
+import net.eiroca.sysadm.flume.util.interceptors.MultiReplacer;
+import net.eiroca.sysadm.flume.util.interceptors.RuleSelector;
 import net.eiroca.sysadm.flume.util.interceptors.UltimateConfig;
+import net.eiroca.sysadm.flume.util.interceptors.UltimateConfigCache;
 
 public class UltimateInterceptor implements Interceptor {
 
@@ -52,16 +60,35 @@ public class UltimateInterceptor implements Interceptor {
   // ms limit in event processing
   private static final int EVENT_TIME_LIMIT = 1000;
 
+  private static final CompiledMacro BODY = CompiledMacro.compile("%()");
+  // min events per worker in parallel mode
+  private static final int MIN_CHUNK_SIZE = 16;
+
+  private static ForkJoinPool pool;
+
   UltimateConfig defaultConfig;
-  String[] ruleFormat;
+  CompiledMacro[] ruleFormat;
   Comparator<Event> sorter;
-
-  private static final HashMap<String, PairEntry<Date, UltimateConfig>> configCache = new HashMap<>();
+  UltimateConfigCache configCache;
+  RuleSelector selector;
+  int parallelism = 1;
 
   public UltimateInterceptor(final String[] ruleFormat, final String sortHeader, final UltimateConfig defaultConfig) {
+    this(ruleFormat, sortHeader, defaultConfig, 1000, 60000, 1);
+  }
+
+  public UltimateInterceptor(final String[] ruleFormat, final String sortHeader, final UltimateConfig defaultConfig, final int ruleCacheSize, final long ruleCheckInterval, final int parallelism) {
     LicenseCheck.runCheck();
     this.defaultConfig = defaultConfig;
-    this.ruleFormat = ruleFormat;
+    this.parallelism = Math.max(1, parallelism);
+    configCache = new UltimateConfigCache(ruleCacheSize, ruleCheckInterval);
+    if (ruleFormat != null) {
+      this.ruleFormat = new CompiledMacro[ruleFormat.length];
+      for (int i = 0; i < ruleFormat.length; i++) {
+        this.ruleFormat[i] = CompiledMacro.compile(ruleFormat[i]);
+      }
+    }
+    selector = new RuleSelector(this.ruleFormat, Math.max(ruleCacheSize, 1000) * 10);
     sorter = (sortHeader != null) ? new EventSorter(sortHeader) : null;
     UltimateInterceptor.logger.debug("Default config: {}", this.defaultConfig);
   }
@@ -71,22 +98,24 @@ public class UltimateInterceptor implements Interceptor {
     UltimateInterceptor.logger.debug("Initialize {}...", this);
   }
 
-  public UltimateConfig getConfig(final String[] ruleFormat, final Map<String, String> headers) {
+  public UltimateConfig getConfig(final CompiledMacro[] ruleFormat, final Map<String, String> headers) {
     UltimateConfig result = null;
-    if (ruleFormat != null) {
+    if ((ruleFormat == this.ruleFormat) && selector.isIndexed()) {
       String ruleName = null;
-      for (final String rule : ruleFormat) {
-        ruleName = MacroExpander.expand(rule, headers, null);
-        PairEntry<Date, UltimateConfig> entry;
-        // synchronized (UltimateInterceptor.configCache) {
-        entry = UltimateInterceptor.configCache.get(ruleName);
-        if (entry == null) {
-          result = UltimateConfig.readRule(ruleName);
-          entry = new PairEntry<>(new Date(), result);
-          UltimateInterceptor.configCache.put(ruleName, entry);
+      for (final String name : selector.select(headers)) {
+        ruleName = name;
+        result = configCache.get(ruleName);
+        if (result != null) {
+          break;
         }
-        // }
-        result = (entry != null) ? entry.getRight() : null;
+      }
+      UltimateInterceptor.logger.trace("getConfig({})", ruleName);
+    }
+    else if (ruleFormat != null) {
+      String ruleName = null;
+      for (final CompiledMacro rule : ruleFormat) {
+        ruleName = rule.expand(headers);
+        result = configCache.get(ruleName);
         if (result != null) {
           break;
         }
@@ -99,18 +128,58 @@ public class UltimateInterceptor implements Interceptor {
     return result;
   }
 
+  /**
+   * Outcome of the decode stage of an event (rule lookup, trim, decode and replacements). The stage
+   * is stateless, in parallel mode it runs on the shared pool.
+   */
+  private static class Prepared {
+
+    UltimateConfig config;
+    byte[] data;
+    // trimmed body before any replacement, decoded in byte mode only when filtered or logged
+    String originalBody;
+    String body;
+    boolean changed;
+    // true when data is the encoding of body
+    boolean encoded;
+
+  }
+
   @Override
   public Event intercept(final Event event) {
-    boolean isSuccess = false;
     final long now = System.currentTimeMillis();
     UltimateInterceptor.logger.trace("Intercept {}...", this);
-    UltimateConfig config = null;
+    Prepared prepared = null;
     try {
-      UltimateInterceptor.logger.trace("Intercept Event: {}", event);
-      final Map<String, String> headers = event.getHeaders();
-      config = getConfig(ruleFormat, headers);
-      UltimateInterceptor.logger.trace("Intercept Config: {}", config);
-      byte[] data = event.getBody();
+      prepared = prepare(event);
+    }
+    catch (final Exception e) {
+      UltimateInterceptor.logger.error("Interceptor unexpected error: ", e);
+    }
+    return (prepared != null) ? complete(event, prepared, now) : event;
+  }
+
+  private Prepared prepare(final Event event) {
+    UltimateInterceptor.logger.trace("Intercept Event: {}", event);
+    final Prepared prepared = new Prepared();
+    final UltimateConfig config = getConfig(ruleFormat, event.getHeaders());
+    UltimateInterceptor.logger.trace("Intercept Config: {}", config);
+    prepared.config = config;
+    byte[] data = event.getBody();
+    final BodyTransformer transformer = (data != null) ? config.bodyTransformer : null;
+    if (transformer != null) {
+      final int start = transformer.trimStart(data);
+      final int end = transformer.trimEnd(data, start);
+      if ((config.filter != null) || UltimateInterceptor.logger.isDebugEnabled()) {
+        prepared.originalBody = transformer.decode(data, start, end);
+      }
+      final byte[] newData = transformer.transform(data, start, end, config.needsText ? -1 : config.bodyLimit);
+      prepared.changed = newData != data;
+      prepared.encoded = true;
+      prepared.data = newData;
+      prepared.body = config.needsText ? transformer.decode(newData, 0, newData.length) : null;
+    }
+    else {
       final int oldSize = Helper.size(data);
       try {
         data = UltimateInterceptor.trim(config, data);
@@ -119,16 +188,42 @@ public class UltimateInterceptor implements Interceptor {
         UltimateInterceptor.logger.warn("Ignored error during trim() ", e);
       }
       final int newSize = Helper.size(data);
-      boolean changed = newSize != oldSize;
-      final String originalBody = LibStr.getMessage(data, config.encoding, FlumeHelper.BODY_ERROR_MESSAGE);
+      prepared.data = data;
+      prepared.encoded = false;
+      prepared.originalBody = LibStr.getMessage(data, config.encoding, FlumeHelper.BODY_ERROR_MESSAGE);
+      prepared.body = UltimateInterceptor.replace(prepared.originalBody, config.standardReplacements, config.replacer);
+      prepared.changed = (newSize != oldSize) || (!prepared.body.equals(prepared.originalBody));
+    }
+    return prepared;
+  }
+
+  /**
+   * Filter, actions, extractors and output of a prepared event. They may hold state (e.g. a sampling
+   * filter), they run on the calling thread in event order.
+   */
+  private Event complete(final Event event, final Prepared prepared, final long now) {
+    boolean isSuccess = false;
+    final UltimateConfig config = prepared.config;
+    try {
+      final Map<String, String> headers = event.getHeaders();
       if (config.filter != null) {
-        if (!config.filter.accept(headers, originalBody)) {
+        if (!config.filter.accept(headers, prepared.originalBody)) {
           UltimateInterceptor.logger.debug("event skipped: {}", event);
           return null;
         }
       }
-      String body = UltimateInterceptor.replace(originalBody, config.standardReplacements, config.replacements);
-      changed = changed | (!body.equals(originalBody));
+      final byte[] data = prepared.data;
+      boolean changed = prepared.changed;
+      boolean encoded = prepared.encoded;
+      String body = prepared.body;
+      if (body == null) {
+        // Byte level only
+        isSuccess = true;
+        if (changed) {
+          event.setBody(data);
+        }
+        return event;
+      }
       Actions.execute(config.headers, headers, body);
       Tags fields = null;
       String newBody = null;
@@ -137,7 +232,7 @@ public class UltimateInterceptor implements Interceptor {
         for (final IExtractor extractor : config.extractors) {
           UltimateInterceptor.logger.trace("Checking: {}", extractor);
           try {
-            fields = ActionExtractor.extractFields("%()", extractor, config.extractorsFields, headers, body);
+            fields = ActionExtractor.extractFields(UltimateInterceptor.BODY, extractor, config.extractorsFields, headers, body);
           }
           catch (final Exception e) {
             if (!config.silentError) { throw e; }
@@ -154,15 +249,15 @@ public class UltimateInterceptor implements Interceptor {
       }
       if (isSuccess) {
         if (config.successOutput != null) {
-          newBody = MacroExpander.expand(config.successOutput, headers, body, fields.map());
+          newBody = config.successOutput.expand(headers, body, fields.map());
         }
         newEncoding = config.successEncoding;
         Actions.execute(config.successHeaders, headers, newBody != null ? newBody : body);
       }
       else {
-        UltimateInterceptor.logger.debug("failed event: {}", originalBody);
+        UltimateInterceptor.logger.debug("failed event: {}", prepared.originalBody);
         if (config.failedOutput != null) {
-          newBody = MacroExpander.expand(config.failedOutput, headers, body);
+          newBody = config.failedOutput.expand(headers, body);
         }
         newEncoding = config.failedEncoding;
         Actions.execute(config.failedHeaders, headers, newBody != null ? newBody : body);
@@ -170,10 +265,11 @@ public class UltimateInterceptor implements Interceptor {
       if (newBody != null) {
         body = newBody;
         changed = true;
+        encoded = false;
       }
       byte[] newData = data;
       final boolean needRencoding = newEncoding != null ? !newEncoding.equalsIgnoreCase(config.encoding) : false;
-      if (changed || needRencoding) {
+      if ((changed && !encoded) || needRencoding) {
         if (needRencoding) {
           newData = LibStr.convertCharSet(body, newEncoding);
           if (newData != null) {
@@ -204,12 +300,12 @@ public class UltimateInterceptor implements Interceptor {
       }
     }
     catch (final Exception e) {
-      UltimateInterceptor.logger.error("Interceptor unexpexted error: ", e);
+      UltimateInterceptor.logger.error("Interceptor unexpected error: ", e);
     }
     final long elapsed = System.currentTimeMillis() - now;
     UltimateInterceptor.logger.debug("Success: {} event: {}", isSuccess, event);
     if (elapsed > UltimateInterceptor.EVENT_TIME_LIMIT) {
-      String confName = (config != null) ? config.rule : "";
+      final String confName = config.rule;
       UltimateInterceptor.logger.info("SLOW processing {} ms event. Rule: {}", elapsed, confName);
       UltimateInterceptor.logger.debug("SLOW processing body: {}", event);
     }
@@ -221,24 +317,33 @@ public class UltimateInterceptor implements Interceptor {
     if (events == null) { return events; }
     long elapsed = System.currentTimeMillis();
     UltimateInterceptor.logger.debug("Interception {} event(s)", events.size(), this);
-    int i = 0;
     final int size = events.size();
     if ((size > 1) && (sorter != null)) {
       final long now = System.currentTimeMillis();
       Collections.sort(events, sorter);
       UltimateInterceptor.logger.trace("Sorted {} events in {}ms", size, (System.currentTimeMillis() - now));
     }
-    while (i < events.size()) {
-      final Event e = events.get(i);
-      final Event newEvent = intercept(e);
-      if (newEvent != null) {
-        events.set(i, newEvent);
-        i++;
+    final int chunks = Math.min(parallelism, size / UltimateInterceptor.MIN_CHUNK_SIZE);
+    int kept = 0;
+    if (chunks > 1) {
+      final Event[] result = interceptParallel(events, chunks);
+      for (final Event e : result) {
+        if (e != null) {
+          events.set(kept++, e);
+        }
       }
-      else {
-        events.remove(i);
+    }
+    else {
+      for (int i = 0; i < size; i++) {
+        final Event newEvent = intercept(events.get(i));
+        if (newEvent != null) {
+          events.set(kept++, newEvent);
+        }
       }
     }
+    if (kept < size) {
+      events.subList(kept, size).clear();
+    }
     elapsed = (System.currentTimeMillis() - elapsed);
     UltimateInterceptor.logger.debug("Ultimate kept: {} elapsed: {} ms", events.size(), elapsed);
     if ((size >= 100) && (elapsed > (size * UltimateInterceptor.BULK_TIME_LIMIT))) {
@@ -249,46 +354,64 @@ public class UltimateInterceptor implements Interceptor {
     return events;
   }
 
+  /**
+   * Prepare the events on the shared pool split in chunks, then complete them in order on the
+   * calling thread. The result keeps the order of events (null for the dropped ones), an event that
+   * fails to prepare is kept unchanged.
+   */
+  private Event[] interceptParallel(final List<Event> events, final int chunks) {
+    final int size = events.size();
+    final Prepared[] prepared = new Prepared[size];
+    final List<Future<?>> tasks = new ArrayList<>(chunks);
+    for (int c = 0; c < chunks; c++) {
+      final int from = (c * size) / chunks;
+      final int to = ((c + 1) * size) / chunks;
+      tasks.add(UltimateInterceptor.getPool().submit(() -> {
+        for (int i = from; i < to; i++) {
+          try {
+            prepared[i] = prepare(events.get(i));
+          }
+          catch (final Exception e) {
+            UltimateInterceptor.logger.error("Interceptor unexpected error: ", e);
+          }
+        }
+      }));
+    }
+    for (final Future<?> task : tasks) {
+      try {
+        Uninterruptibles.getUninterruptibly(task);
+      }
+      catch (final ExecutionException e) {
+        UltimateInterceptor.logger.error("Interceptor unexpected error: ", e.getCause());
+      }
+    }
+    final Event[] result = new Event[size];
+    for (int i = 0; i < size; i++) {
+      final Event event = events.get(i);
+      result[i] = (prepared[i] != null) ? complete(event, prepared[i], System.currentTimeMillis()) : event;
+    }
+    return result;
+  }
+
+  private static synchronized ForkJoinPool getPool() {
+    if (UltimateInterceptor.pool == null) {
+      UltimateInterceptor.pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+    return UltimateInterceptor.pool;
+  }
+
   @Override
   public void close() {
     UltimateInterceptor.logger.debug("Close {}...", this);
   }
 
+  /**
+   * Apply the replacements one after the other (String.replace in list order).
+   */
   public static String replace(String body, final boolean standardReplacements, final List<PairEntry<String, String>> replacements) {
     if ((body != null)) {
       if (standardReplacements) {
-        final StringBuffer newBody = new StringBuffer(body.length());
-        char lastChar = (char)0;
-        boolean changed = false;
-        for (int i = 0; i < body.length(); i++) {
-          char ch = body.charAt(i);
-          switch (ch) {
-            case '\t':
-              ch = ' ';
-              changed = true;
-              break;
-            case '\r':
-            case '\n':
-              changed = true;
-              ch = '\t';
-              break;
-          }
-          if (ch != '\t') {
-            newBody.append(ch);
-          }
-          else {
-            if (lastChar != '\t') {
-              newBody.append(ch);
-            }
-            else {
-              changed = true;
-            }
-          }
-          lastChar = ch;
-        }
-        if (changed) {
-          body = newBody.toString();
-        }
+        body = UltimateInterceptor.standardReplace(body);
       }
       if ((replacements != null) && (replacements.size() > 0)) {
         for (final PairEntry<String, String> replacement : replacements) {
@@ -299,6 +422,58 @@ public class UltimateInterceptor implements Interceptor {
     return body;
   }
 
+  /**
+   * Apply the replacements in a single pass, see {@link MultiReplacer} for the precedence rules.
+   */
+  public static String replace(String body, final boolean standardReplacements, final MultiReplacer replacer) {
+    if ((body != null)) {
+      if (standardReplacements) {
+        body = UltimateInterceptor.standardReplace(body);
+      }
+      if (replacer != null) {
+        body = replacer.replace(body);
+      }
+    }
+    return body;
+  }
+
+  // TAB -> space, CR/LF (runs of) -> TAB
+  private static String standardReplace(String body) {
+    final StringBuffer newBody = new StringBuffer(body.length());
+    char lastChar = (char)0;
+    boolean changed = false;
+    for (int i = 0; i < body.length(); i++) {
+      char ch = body.charAt(i);
+      switch (ch) {
+        case '\t':
+          ch = ' ';
+          changed = true;
+          break;
+        case '\r':
+        case '\n':
+          changed = true;
+          ch = '\t';
+          break;
+      }
+      if (ch != '\t') {
+        newBody.append(ch);
+      }
+      else {
+        if (lastChar != '\t') {
+          newBody.append(ch);
+        }
+        else {
+          changed = true;
+        }
+      }
+      lastChar = ch;
+    }
+    if (changed) {
+      body = newBody.toString();
+    }
+    return body;
+  }
+
   public static byte[] trim(final UltimateConfig config, byte[] body) {
     if ((Helper.isEmptyOrNull(config.lTrim) && Helper.isEmptyOrNull(config.rTrim)) || (body == null)) { return body; }
     final int size = body.length;
@@ -355,22 +530,31 @@ public class UltimateInterceptor implements Interceptor {
     final private transient Parameters params = new Parameters();
     final private transient ListParameter pRule = new ListParameter(params, "rule", null);
     final private transient StringParameter pSortHeader = new StringParameter(params, "sort-header", null);
+    final private transient IntegerParameter pRuleCacheSize = new IntegerParameter(params, "rule-cache-size", 1000);
+    final private transient IntegerParameter pRuleCheckInterval = new IntegerParameter(params, "rule-check-interval", 60);
+    final private transient IntegerParameter pParallelism = new IntegerParameter(params, "parallelism", 1);
 
     UltimateConfig config;
     String[] ruleFormat;
     String sortHeader;
+    int ruleCacheSize;
+    long ruleCheckInterval;
+    int parallelism;
 
     @Override
     public void configure(final Context context) {
       FlumeHelper.laodConfig(params, context);
       ruleFormat = pRule.get();
       sortHeader = pSortHeader.get();
+      ruleCacheSize = pRuleCacheSize.get();
+      ruleCheckInterval = pRuleCheckInterval.get() * 1000L;
+      parallelism = pParallelism.get();
       config = new UltimateConfig(getClass().getName(), context.getParameters());
     }
 
     @Override
     public Interceptor build() {
-      return new UltimateInterceptor(ruleFormat, sortHeader, config);
+      return new UltimateInterceptor(ruleFormat, sortHeader, config, ruleCacheSize, ruleCheckInterval, parallelism);
     }
 
   }
@@ -24,8 +24,8 @@ import org.apache.flume.serialization.EventSerializer;
 import net.eiroca.library.config.Parameters;
 import net.eiroca.library.config.parameter.BooleanParameter;
 import net.eiroca.library.config.parameter.StringParameter;
+import net.eiroca.sysadm.flume.core.util.CompiledMacro;
 import net.eiroca.sysadm.flume.core.util.FlumeHelper;
-import net.eiroca.sysadm.flume.core.util.MacroExpander;
 
 /**
  * This class simply writes the body of the event to the output stream and appends a newline after
@@ -44,7 +44,7 @@ public class FormattedSerializer implements EventSerializer {
 
   protected final OutputStream out;
 
-  protected String messageFormat;
+  protected CompiledMacro messageFormat;
   protected boolean appendCR;
   protected boolean appendLF;
   protected String encoding;
@@ -53,7 +53,7 @@ public class FormattedSerializer implements EventSerializer {
     this.out = out;
     FlumeHelper.laodConfig(params, context);
     encoding = pEncoding.get();
-    messageFormat = pMessageFormat.get();
+    messageFormat = CompiledMacro.compile(pMessageFormat.get());
     appendCR = pMessageCR.get();
     appendLF = pMessageLF.get();
   }
@@ -79,7 +79,7 @@ public class FormattedSerializer implements EventSerializer {
     byte[] result;
     if (messageFormat != null) {
       final String body = FlumeHelper.getBody(e, encoding);
-      final String _message = MacroExpander.expand(messageFormat, e.getHeaders(), body);
+      final String _message = messageFormat.expand(e.getHeaders(), body);
       result = _message.getBytes();
     }
     else {
@@ -22,7 +22,7 @@ import com.google.common.collect.ImmutableMap;
 import net.eiroca.library.config.parameter.StringParameter;
 import net.eiroca.library.system.Logs;
 import net.eiroca.sysadm.flume.core.actions.Action;
-import net.eiroca.sysadm.flume.core.util.MacroExpander;
+import net.eiroca.sysadm.flume.core.util.CompiledMacro;
 import net.eiroca.sysadm.flume.core.util.MappingCSVData;
 
 public class ActionCSV extends Action {
@@ -34,7 +34,7 @@ public class ActionCSV extends Action {
   final private transient StringParameter pCSVFile = new StringParameter(params, "mapping");
   final private transient StringParameter pCSVSeparator = new StringParameter(params, "csv-separator-char", ",");
 
-  public String matchHeaderKey;
+  public CompiledMacro matchHeaderKey;
   public String headerDefault;
 
   private MappingCSVData mapping;
@@ -42,7 +42,7 @@ public class ActionCSV extends Action {
   @Override
   public void configure(final ImmutableMap<String, String> config, final String prefix) {
     super.configure(config, prefix);
-    matchHeaderKey = pMatchHeader.get();
+    matchHeaderKey = CompiledMacro.compile(pMatchHeader.get());
     headerDefault = pMatchDefault.get();
     mapping = new MappingCSVData(pCSVFile.get(), pCSVSeparator.get());
     ActionCSV.logger.debug("CSV Field config: {}", this);
@@ -51,7 +51,7 @@ public class ActionCSV extends Action {
   @Override
   public void run(final Map<String, String> headers, final String body) {
     Map<String, String> extraHeaderInfo = null;
-    String keyVal = MacroExpander.expand(matchHeaderKey, headers, body);
+    String keyVal = (matchHeaderKey != null) ? matchHeaderKey.expand(headers, body) : null;
     extraHeaderInfo = mapping.get(keyVal);
     if (extraHeaderInfo == null) {
       ActionCSV.logger.trace("{} not found using {}", keyVal, headerDefault);
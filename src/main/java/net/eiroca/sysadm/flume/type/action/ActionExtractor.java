@@ -33,6 +33,7 @@ import net.eiroca.sysadm.flume.api.IConverterResult;
 import net.eiroca.sysadm.flume.api.IExtractor;
 import net.eiroca.sysadm.flume.core.actions.Action;
 import net.eiroca.sysadm.flume.core.extractors.Extractors;
+import net.eiroca.sysadm.flume.core.util.CompiledMacro;
 import net.eiroca.sysadm.flume.core.util.MacroExpander;
 import net.eiroca.sysadm.flume.type.extractor.util.FieldConfig;
 
@@ -50,12 +51,12 @@ public class ActionExtractor extends Action {
 
   protected IExtractor extractor;
   protected Map<String, FieldConfig> extractorsFields = new HashMap<>();
-  protected String source;
+  protected CompiledMacro source;
 
   @Override
   public void configure(final ImmutableMap<String, String> config, final String prefix) {
     super.configure(config, prefix);
-    source = pSource.get();
+    source = CompiledMacro.compile(pSource.get());
     final String type = pExtractorType.get();
     extractor = Extractors.build(type, config, LibStr.concatenate(prefix, ".", type, "."));
     extractorsFields = ActionExtractor.buildExtractorFields(extractor, pExtractorFields.get(), config, LibStr.concatenate(prefix, ".", ActionExtractor.CTX_EXTRACTORFIELD_PREFIX, "."));
@@ -70,8 +71,8 @@ public class ActionExtractor extends Action {
     }
   }
 
-  public static Tags extractFields(String source, final IExtractor extractor, final Map<String, FieldConfig> extractorsFields, final Map<String, String> headers, final String body) {
-    String text = MacroExpander.expand(source, headers, body);
+  public static Tags extractFields(final CompiledMacro source, final IExtractor extractor, final Map<String, FieldConfig> extractorsFields, final Map<String, String> headers, final String body) {
+    final String text = (source != null) ? source.expand(headers, body) : null;
     ActionExtractor.logger.trace(LibStr.concatenate("Extractor:", extractor.getName(), "Source:", source, "Text:", text));
     if (text == null) { return null; }
     final Tags fields = extractor.getTags(text);
@@ -116,7 +117,7 @@ public class ActionExtractor extends Action {
         }
         String value = extracted;
         if (LibStr.isNotEmptyOrNull(extracted)) {
-          value = (fieldConfig.expandMacro) ? MacroExpander.expand(extracted, headers) : extracted;
+          value = (fieldConfig.expandMacro) ? MacroExpander.expandValue(extracted, headers, null) : extracted;
           headers.put(fieldConfig.name, value);
         }
         ActionExtractor.logger.trace(LibStr.concatenate("(", fieldConfig.converter.getName(), ") ", fieldConfig.name, " = ", val, " -> ", value));
@@ -27,7 +27,7 @@ import net.eiroca.library.regex.ARegEx;
 import net.eiroca.library.regex.RegularExpression;
 import net.eiroca.library.system.Logs;
 import net.eiroca.sysadm.flume.core.actions.HeaderAction;
-import net.eiroca.sysadm.flume.core.util.MacroExpander;
+import net.eiroca.sysadm.flume.core.util.CompiledMacro;
 
 public class HeaderRegEx extends HeaderAction {
 
@@ -40,7 +40,7 @@ public class HeaderRegEx extends HeaderAction {
   final private transient IntegerParameter pRegExMinSize = new IntegerParameter(params, "min-size", 512);
   final private transient IntegerParameter pRegExMaxTime = new IntegerParameter(params, "max-time", 100000);
 
-  public String source;
+  public CompiledMacro source;
   public ARegEx rule;
 
   @Override
@@ -57,7 +57,7 @@ public class HeaderRegEx extends HeaderAction {
     else {
       force = new Boolean(String.valueOf(value));
     }
-    source = pRegExSource.get();
+    source = CompiledMacro.compile(pRegExSource.get());
     rule = RegularExpression.build(getName(), pRegExPattern.get(), pRegExEngine.get());
     rule.setSizeLimit(pRegExLimit.get());
     rule.setSizeMin(pRegExMinSize.get());
@@ -67,7 +67,7 @@ public class HeaderRegEx extends HeaderAction {
 
   @Override
   public String getValue(final Map<String, String> headers, final String body) {
-    final String text = MacroExpander.expand(source, headers, body);
+    final String text = (source != null) ? source.expand(headers, body) : null;
     HeaderRegEx.logger.trace("looking \"{}\" in \"{}\"", rule.pattern, text);
     final String value = rule.findFirst(text);
     if (value != null) {
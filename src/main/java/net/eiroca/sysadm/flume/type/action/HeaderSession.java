@@ -23,7 +23,7 @@ import net.eiroca.library.config.parameter.StringParameter;
 import net.eiroca.library.core.Helper;
 import net.eiroca.library.core.LibStr;
 import net.eiroca.sysadm.flume.core.actions.HeaderAction;
-import net.eiroca.sysadm.flume.core.util.MacroExpander;
+import net.eiroca.sysadm.flume.core.util.CompiledMacro;
 import net.eiroca.sysadm.flume.util.sessions.SessionManager;
 
 public class HeaderSession extends HeaderAction {
@@ -35,9 +35,9 @@ public class HeaderSession extends HeaderAction {
 
   protected SessionManager manager;
 
-  public String key;
-  public String validate;
-  public String timestamp;
+  public CompiledMacro key;
+  public CompiledMacro validate;
+  public CompiledMacro timestamp;
   public long ttl;
 
   @Override
@@ -52,9 +52,9 @@ public class HeaderSession extends HeaderAction {
     else {
       force = new Boolean(String.valueOf(value));
     }
-    key = pSessionKey.get();
-    validate = pSessionValidate.get();
-    timestamp = pTimestamp.get();
+    key = CompiledMacro.compile(pSessionKey.get());
+    validate = CompiledMacro.compile(pSessionValidate.get());
+    timestamp = CompiledMacro.compile(pTimestamp.get());
     ttl = pTTL.get() * 1000;
     if (ttl < 1) {
       ttl = 1;
@@ -65,9 +65,11 @@ public class HeaderSession extends HeaderAction {
 
   @Override
   public String getValue(final Map<String, String> headers, final String body) {
-    final String aKey = MacroExpander.expand(key, headers, body);
-    MacroExpander.expand(validate, headers, body);
-    final String aTimeStamp = MacroExpander.expand(timestamp, headers, body);
+    final String aKey = (key != null) ? key.expand(headers, body) : null;
+    if (validate != null) {
+      validate.expand(headers, body);
+    }
+    final String aTimeStamp = (timestamp != null) ? timestamp.expand(headers, body) : null;
     Helper.getLong(aTimeStamp, System.currentTimeMillis());
     // final Session s = manager.find(aKey, timeStamp, aValidate);
     // return s.ID();
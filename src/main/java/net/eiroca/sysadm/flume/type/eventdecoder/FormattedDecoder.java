@@ -20,8 +20,8 @@ import org.apache.flume.Event;
 import com.google.common.collect.ImmutableMap;
 import net.eiroca.library.config.parameter.StringParameter;
 import net.eiroca.sysadm.flume.core.eventDecoders.EventDecoder;
+import net.eiroca.sysadm.flume.core.util.CompiledMacro;
 import net.eiroca.sysadm.flume.core.util.FlumeHelper;
-import net.eiroca.sysadm.flume.core.util.MacroExpander;
 
 public class FormattedDecoder extends EventDecoder<String> {
 
@@ -29,19 +29,19 @@ public class FormattedDecoder extends EventDecoder<String> {
   final private transient StringParameter pFormat = new StringParameter(params, "format", "%()");
 
   public String encoding;
-  public String messageFormat;
+  public CompiledMacro messageFormat;
 
   @Override
   public void configure(final ImmutableMap<String, String> config, final String prefix) {
     params.loadConfig(config, prefix);
     encoding = pEncoding.get();
-    messageFormat = pFormat.get();
+    messageFormat = CompiledMacro.compile(pFormat.get());
   }
 
   @Override
   public String decode(final Event event) {
     final String body = FlumeHelper.getBody(event, encoding);
-    final String message = MacroExpander.expand(messageFormat, event.getHeaders(), body);
+    final String message = messageFormat.expand(event.getHeaders(), body);
     return message;
   }
 
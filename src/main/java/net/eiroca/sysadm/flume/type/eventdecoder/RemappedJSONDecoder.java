@@ -18,10 +18,10 @@ package net.eiroca.sysadm.flume.type.eventdecoder;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.flume.Event;
 import org.slf4j.Logger;
 import com.google.common.collect.ImmutableMap;
@@ -49,7 +49,8 @@ public class RemappedJSONDecoder extends EventDecoder<JsonObject> {
 
   public String encoding;
 
-  Map<String, String> mappedName = new HashMap<>();
+  // decode() may run concurrently (GenericSink parallelism) and learns missing names
+  Map<String, String> mappedName = new ConcurrentHashMap<>();
   boolean expandName;
   String bodyName;
   String missingPrefix;
@@ -25,7 +25,7 @@ import net.eiroca.library.config.parameter.StringParameter;
 import net.eiroca.library.core.LibStr;
 import net.eiroca.library.system.Logs;
 import net.eiroca.sysadm.flume.core.filters.Filter;
-import net.eiroca.sysadm.flume.core.util.MacroExpander;
+import net.eiroca.sysadm.flume.core.util.CompiledMacro;
 
 public class FilterFieldSampler extends Filter {
 
@@ -37,7 +37,7 @@ public class FilterFieldSampler extends Filter {
   protected final StringParameter pSampleRateMapping = new StringParameter(params, "sample-rate-mapping", "T=25,I=50,W=100,E=100,F=100,all=100,off=0");
 
   private Random generator = new Random();
-  private String sampleSource;
+  private CompiledMacro sampleSource;
   private int sampleDefaultRate;
   private Map<String, Integer> rate = new HashMap<>();
 
@@ -52,7 +52,7 @@ public class FilterFieldSampler extends Filter {
     else {
       generator = new Random(seed);
     }
-    sampleSource = pSampleSource.get();
+    sampleSource = CompiledMacro.compile(pSampleSource.get());
     sampleDefaultRate = pSampleDefaultRate.get();
     final String rateStr = pSampleRateMapping.get();
     try {
@@ -69,7 +69,7 @@ public class FilterFieldSampler extends Filter {
     int r = sampleDefaultRate;
     String _fieldVal = null;
     if (sampleSource != null) {
-      _fieldVal = MacroExpander.expand(sampleSource, headers, body);
+      _fieldVal = sampleSource.expand(headers, body);
       if (LibStr.isNotEmptyOrNull(_fieldVal)) {
         final Integer _rate = rate.get(_fieldVal.toLowerCase());
         if (_rate != null) {
@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 1999-2021 Enrico Croce - AGPL >= 3.0
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package net.eiroca.sysadm.flume.util.avro;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.flume.Event;
+import org.apache.flume.event.SimpleEvent;
+import org.apache.flume.source.avro.AvroFlumeEvent;
+
+/**
+ * Converts received {@link AvroFlumeEvent}s into Flume events.
+ *
+ * Senders repeat the same few header keys, usually in the same order and often with the same
+ * values, so the headers of the previous event in the batch are kept by position and their Strings
+ * reused when the bytes match, instead of decoding them again. Bodies exactly backed by an array
+ * are used without copy.
+ */
+public final class AvroEventConverter {
+
+  private static final byte[] EMPTY = new byte[0];
+
+  /**
+   * Headers of the last converted event, by iteration position.
+   */
+  public static final class Memo {
+
+    private CharSequence[] seqs = new CharSequence[16];
+    private String[] strings = new String[16];
+
+    String toString(final int index, final CharSequence value) {
+      if (value instanceof String) { return (String)value; }
+      if (index >= seqs.length) {
+        seqs = Arrays.copyOf(seqs, index * 2);
+        strings = Arrays.copyOf(strings, index * 2);
+      }
+      final CharSequence last = seqs[index];
+      if ((last != null) && last.equals(value)) { return strings[index]; }
+      final String result = value.toString();
+      seqs[index] = value;
+      strings[index] = result;
+      return result;
+    }
+
+  }
+
+  private AvroEventConverter() {
+  }
+
+  public static List<Event> toEvents(final List<AvroFlumeEvent> events) {
+    final List<Event> batch = new ArrayList<>(events.size());
+    final Memo memo = new Memo();
+    for (final AvroFlumeEvent avroEvent : events) {
+      batch.add(AvroEventConverter.toEvent(avroEvent, memo));
+    }
+    return batch;
+  }
+
+  /**
+   * @param memo - headers converted for the previous event of the batch, null to convert every
+   *          header
+   */
+  public static Event toEvent(final AvroFlumeEvent avroEvent, final Memo memo) {
+    final Event event = new SimpleEvent();
+    final byte[] body = AvroEventConverter.toBody(avroEvent.getBody());
+    event.setBody((body != null) ? body : AvroEventConverter.EMPTY);
+    // the map is owned by the event, EventBuilder would copy it again
+    event.setHeaders(AvroEventConverter.toStringMap(avroEvent.getHeaders(), memo));
+    return event;
+  }
+
+  /**
+   * @return the backing array if it holds exactly the body, a copy of the remaining bytes otherwise.
+   */
+  public static byte[] toBody(final ByteBuffer body) {
+    if (body == null) { return null; }
+    if (body.hasArray() && (body.arrayOffset() == 0) && (body.position() == 0) && (body.limit() == body.array().length)) { return body.array(); }
+    final byte[] data = new byte[body.remaining()];
+    body.duplicate().get(data);
+    return data;
+  }
+
+  public static Map<String, String> toStringMap(final Map<CharSequence, CharSequence> charSeqMap, final Memo memo) {
+    // sized to hold the headers without rehash
+    final Map<String, String> stringMap = new HashMap<>(((charSeqMap.size() * 4) / 3) + 1);
+    int index = 0;
+    for (final Map.Entry<CharSequence, CharSequence> entry : charSeqMap.entrySet()) {
+      if (memo != null) {
+        stringMap.put(memo.toString(index, entry.getKey()), memo.toString(index + 1, entry.getValue()));
+        index += 2;
+      }
+      else {
+        stringMap.put(entry.getKey().toString(), entry.getValue().toString());
+      }
+    }
+    return stringMap;
+  }
+
+}
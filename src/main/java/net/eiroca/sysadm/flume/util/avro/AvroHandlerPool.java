@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 1999-2021 Enrico Croce - AGPL >= 3.0
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package net.eiroca.sysadm.flume.util.avro;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jboss.netty.handler.execution.OrderedMemoryAwareThreadPoolExecutor;
+
+/**
+ * Request handler pool of an Avro server that also counts the channel events waiting for a thread.
+ * getQueue() can't be used for that: it holds one task per connection with pending events, not the
+ * events.
+ */
+public class AvroHandlerPool extends OrderedMemoryAwareThreadPoolExecutor {
+
+  private final AtomicLong queued = new AtomicLong();
+
+  public AvroHandlerPool(final int threads, final long maxTotalMemorySize, final long keepAliveTime, final TimeUnit unit, final ThreadFactory threadFactory) {
+    super(threads, 0, maxTotalMemorySize, keepAliveTime, unit, threadFactory);
+  }
+
+  // Called when an event is queued
+  @Override
+  protected void increaseCounter(final Runnable task) {
+    super.increaseCounter(task);
+    if (shouldCount(task)) {
+      queued.incrementAndGet();
+    }
+  }
+
+  // Called when an event is taken by a thread (or removed)
+  @Override
+  protected void decreaseCounter(final Runnable task) {
+    super.decreaseCounter(task);
+    if (shouldCount(task)) {
+      queued.decrementAndGet();
+    }
+  }
+
+  /**
+   * @return the channel events (requests, connection state changes) waiting for a handler thread.
+   */
+  public long getQueuedEvents() {
+    return queued.get();
+  }
+
+}
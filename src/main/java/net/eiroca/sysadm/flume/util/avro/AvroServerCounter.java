@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 1999-2021 Enrico Croce - AGPL >= 3.0
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package net.eiroca.sysadm.flume.util.avro;
+
+import org.apache.flume.instrumentation.MonitoredCounterGroup;
+
+/**
+ * Thread model and load of an Avro server: pool sizes, handler pool usage and channel events
+ * waiting for a handler thread (sampled when read), requests being processed, requests refused while the channel was saturated.
+ */
+public class AvroServerCounter extends MonitoredCounterGroup implements AvroServerCounterMBean {
+
+  private static final String BOSS_THREADS = "boss_threads";
+  private static final String WORKER_THREADS = "worker_threads";
+  private static final String HANDLER_THREADS = "handler_threads";
+  private static final String HANDLER_ACTIVE = "handler_active_count";
+  private static final String HANDLER_QUEUE = "handler_queue_size";
+  private static final String REQUEST_IN_FLIGHT = "request_in_flight_count";
+  private static final String REQUEST_SHED = "request_shed_count";
+  private static final String CHANNEL_SATURATED = "channel_saturated_count";
+
+  private static final String[] ATTRIBUTES = {
+      AvroServerCounter.BOSS_THREADS, AvroServerCounter.WORKER_THREADS, AvroServerCounter.HANDLER_THREADS, AvroServerCounter.HANDLER_ACTIVE, AvroServerCounter.HANDLER_QUEUE, AvroServerCounter.REQUEST_IN_FLIGHT, AvroServerCounter.REQUEST_SHED, AvroServerCounter.CHANNEL_SATURATED
+  };
+
+  private volatile AvroHandlerPool handlerPool;
+
+  public AvroServerCounter(final String name) {
+    super(MonitoredCounterGroup.Type.SOURCE, name, AvroServerCounter.ATTRIBUTES);
+  }
+
+  /**
+   * @param handlerPool - request handler pool, null if requests are handled by the I/O workers
+   */
+  public void setThreads(final int boss, final int worker, final AvroHandlerPool handlerPool) {
+    this.handlerPool = handlerPool;
+    set(AvroServerCounter.BOSS_THREADS, boss);
+    set(AvroServerCounter.WORKER_THREADS, worker);
+    set(AvroServerCounter.HANDLER_THREADS, (handlerPool != null) ? handlerPool.getMaximumPoolSize() : 0);
+  }
+
+  public void requestStarted() {
+    increment(AvroServerCounter.REQUEST_IN_FLIGHT);
+  }
+
+  public void requestCompleted() {
+    addAndGet(AvroServerCounter.REQUEST_IN_FLIGHT, -1);
+  }
+
+  public void shed() {
+    increment(AvroServerCounter.REQUEST_SHED);
+  }
+
+  public void saturated() {
+    increment(AvroServerCounter.CHANNEL_SATURATED);
+  }
+
+  // Refresh the sampled gauges
+  public void sample() {
+    final AvroHandlerPool pool = handlerPool;
+    if (pool != null) {
+      set(AvroServerCounter.HANDLER_ACTIVE, pool.getActiveCount());
+      set(AvroServerCounter.HANDLER_QUEUE, pool.getQueuedEvents());
+    }
+  }
+
+  @Override
+  public long getBossThreads() {
+    return get(AvroServerCounter.BOSS_THREADS);
+  }
+
+  @Override
+  public long getWorkerThreads() {
+    return get(AvroServerCounter.WORKER_THREADS);
+  }
+
+  @Override
+  public long getHandlerThreads() {
+    return get(AvroServerCounter.HANDLER_THREADS);
+  }
+
+  @Override
+  public long getHandlerActiveCount() {
+    sample();
+    return get(AvroServerCounter.HANDLER_ACTIVE);
+  }
+
+  @Override
+  public long getHandlerQueueSize() {
+    sample();
+    return get(AvroServerCounter.HANDLER_QUEUE);
+  }
+
+  @Override
+  public long getRequestInFlightCount() {
+    return get(AvroServerCounter.REQUEST_IN_FLIGHT);
+  }
+
+  @Override
+  public long getRequestShedCount() {
+    return get(AvroServerCounter.REQUEST_SHED);
+  }
+
+  @Override
+  public long getChannelSaturatedCount() {
+    return get(AvroServerCounter.CHANNEL_SATURATED);
+  }
+
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright (C) 1999-2021 Enrico Croce - AGPL >= 3.0
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package net.eiroca.sysadm.flume.util.interceptors;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import net.eiroca.library.data.PairEntry;
+
+/**
+ * Applies the UltimateConfig body trim, standard replacements, custom replacements and limit
+ * directly on the encoded bytes, for charsets where ASCII bytes always stand for ASCII chars.
+ *
+ * As in UltimateInterceptor.replace() the standard replacements of tab/CR/LF come first, custom
+ * replacements follow the {@link MultiReplacer} precedence rules and are matched on the result.
+ */
+public class BodyTransformer {
+
+  private final Charset charset;
+  private final boolean[] lTrim = new boolean[256];
+  private final boolean[] rTrim = new boolean[256];
+  private final boolean standardReplacements;
+  private final MultiReplacer replacer;
+
+  /**
+   * @return true if charset can be handled at byte level.
+   */
+  public static boolean isSupported(final Charset charset) {
+    final String name = charset.name();
+    return name.equals("UTF-8") || name.equals("US-ASCII") || name.startsWith("ISO-8859-") || name.startsWith("windows-125");
+  }
+
+  public BodyTransformer(final Charset charset, final byte[] lTrim, final byte[] rTrim, final boolean standardReplacements, final List<PairEntry<String, String>> replacements) {
+    this.charset = charset;
+    if (lTrim != null) {
+      for (final byte b : lTrim) {
+        this.lTrim[b & 0xFF] = true;
+      }
+    }
+    if (rTrim != null) {
+      for (final byte b : rTrim) {
+        this.rTrim[b & 0xFF] = true;
+      }
+    }
+    this.standardReplacements = standardReplacements;
+    final int size = (replacements != null) ? replacements.size() : 0;
+    if (size > 0) {
+      final byte[][] from = new byte[size][];
+      final byte[][] to = new byte[size][];
+      for (int i = 0; i < size; i++) {
+        final PairEntry<String, String> replacement = replacements.get(i);
+        from[i] = replacement.getLeft().getBytes(charset);
+        to[i] = replacement.getRight().getBytes(charset);
+      }
+      replacer = new MultiReplacer(from, to);
+    }
+    else {
+      replacer = null;
+    }
+  }
+
+  public int trimStart(final byte[] body) {
+    int start = 0;
+    while ((start < body.length) && lTrim[body[start] & 0xFF]) {
+      start++;
+    }
+    return start;
+  }
+
+  public int trimEnd(final byte[] body, final int start) {
+    int end = body.length;
+    while ((end > start) && rTrim[body[end - 1] & 0xFF]) {
+      end--;
+    }
+    return end;
+  }
+
+  public String decode(final byte[] body, final int start, final int end) {
+    return new String(body, start, end - start, charset);
+  }
+
+  /**
+   * Transform body[start, end).
+   *
+   * @param limit - max size of the result, <0 no limit
+   * @return body itself if nothing changed, a new array otherwise
+   */
+  public byte[] transform(final byte[] body, final int start, final int end) {
+    return transform(body, start, end, -1);
+  }
+
+  public byte[] transform(final byte[] body, final int start, final int end, final int limit) {
+    final int max = (limit >= 0) ? limit : Integer.MAX_VALUE;
+    byte[] data = body;
+    int from = start;
+    int to = end;
+    if (standardReplacements) {
+      final byte[] newData = BodyTransformer.standardReplace(body, start, end);
+      if (newData != null) {
+        data = newData;
+        from = 0;
+        to = newData.length;
+      }
+    }
+    final byte[] out = (replacer != null) ? replace(data, from, to, max) : null;
+    if (out != null) { return out; }
+    // No custom replacement, only trim and limit
+    final int len = Math.min(to - from, max);
+    if ((from == 0) && (len == data.length)) { return data; }
+    return Arrays.copyOfRange(data, from, from + len);
+  }
+
+  // TAB -> space, CR/LF (runs of) -> TAB, null if body[start, end) is unchanged
+  private static byte[] standardReplace(final byte[] body, final int start, final int end) {
+    byte[] out = null;
+    int pos = 0;
+    byte last = 0;
+    for (int i = start; i < end; i++) {
+      byte b = body[i];
+      if (b == '\t') {
+        b = ' ';
+      }
+      else if ((b == '\r') || (b == '\n')) {
+        b = '\t';
+      }
+      final boolean drop = (b == '\t') && (last == '\t');
+      last = b;
+      if ((out == null) && (drop || (b != body[i]))) {
+        out = new byte[end - start];
+        pos = i - start;
+        System.arraycopy(body, start, out, 0, pos);
+      }
+      if ((out != null) && !drop) {
+        out[pos++] = b;
+      }
+    }
+    if (out == null) { return null; }
+    return (pos == out.length) ? out : Arrays.copyOf(out, pos);
+  }
+
+  // Custom replacements of body[start, end) limited to max bytes, null if there are no matches
+  private byte[] replace(final byte[] body, final int start, final int end, final int max) {
+    final int[] match = new int[2];
+    int found = replacer.find(body, start, end, match);
+    if (found < 0) { return null; }
+    byte[] out = null;
+    int pos = 0;
+    int i = start;
+    while ((found >= 0) && (pos < max)) {
+      final byte[] replacement = replacer.getReplacementBytes(found);
+      if (out == null) {
+        out = BodyTransformer.copy(body, start, match[0], (end - start) + replacement.length, max);
+        pos = Math.min(match[0] - start, max);
+      }
+      else {
+        out = BodyTransformer.ensure(out, pos + (match[0] - i), max);
+        pos = BodyTransformer.append(out, pos, body, i, match[0], max);
+      }
+      if (pos >= max) {
+        break;
+      }
+      out = BodyTransformer.ensure(out, pos + replacement.length, max);
+      pos = BodyTransformer.append(out, pos, replacement, 0, replacement.length, max);
+      i = match[0] + match[1];
+      found = replacer.find(body, i, end, match);
+    }
+    if (pos < max) {
+      out = BodyTransformer.ensure(out, pos + (end - i), max);
+      pos = BodyTransformer.append(out, pos, body, i, end, max);
+    }
+    return (pos == out.length) ? out : Arrays.copyOf(out, pos);
+  }
+
+  // Copies src[from, to) at out[pos] without going over max, returns the new position
+  private static int append(final byte[] out, final int pos, final byte[] src, final int from, final int to, final int max) {
+    final int len = Math.min(to - from, Math.min(max, out.length) - pos);
+    if (len <= 0) { return pos; }
+    System.arraycopy(src, from, out, pos, len);
+    return pos + len;
+  }
+
+  // New output holding body[start, i) (at most max bytes)
+  private static byte[] copy(final byte[] body, final int start, final int i, final int size, final int max) {
+    final int len = Math.min(i - start, max);
+    final byte[] out = new byte[Math.max(Math.min(size, max), len)];
+    System.arraycopy(body, start, out, 0, len);
+    return out;
+  }
+
+  private static byte[] ensure(final byte[] out, final int size, final int max) {
+    if (size <= out.length) { return out; }
+    return Arrays.copyOf(out, Math.min(Math.max(size, out.length * 2), max));
+  }
+
+}
@@ -0,0 +1,271 @@
+/**
+ * Copyright (C) 1999-2021 Enrico Croce - AGPL >= 3.0
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package net.eiroca.sysadm.flume.util.interceptors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton applying a table of replacements in a single left-to-right pass.
+ *
+ * Precedence rules:
+ * <ul>
+ * <li>the match starting first (leftmost) wins;</li>
+ * <li>among matches starting at the same position the longest wins;</li>
+ * <li>if the same pattern is configured twice the first replacement is used;</li>
+ * <li>scanning resumes after the replaced text, replacements are never scanned again;</li>
+ * <li>empty patterns are ignored.</li>
+ * </ul>
+ * The result is the same as replacing each pattern in turn (String.replace in configuration order)
+ * as long as no occurrence of a pattern overlaps an occurrence of another and no replacement
+ * creates an occurrence of a later pattern.
+ *
+ * The automaton works on chars; byte[] input is matched symbol by symbol against patterns built
+ * from bytes (see {@link #MultiReplacer(byte[][], byte[][])}).
+ */
+public class MultiReplacer {
+
+  private static final char[] NO_KEYS = new char[0];
+  private static final int[] NO_NEXT = new int[0];
+
+  // Sorted outgoing symbols per state and their target states
+  private final char[][] keys;
+  private final int[][] next;
+  private final int[] fail;
+  private final int[] depth;
+  // Longest pattern that is a suffix of the state, -1 none
+  private final int[] out;
+
+  private final int[] length;
+  private final String[] to;
+  private final byte[][] toBytes;
+
+  private static class Node {
+
+    final List<Character> keys = new ArrayList<>();
+    final List<Node> next = new ArrayList<>();
+    int id;
+    int depth;
+    int pattern = -1;
+    Node fail;
+
+    Node child(final char c) {
+      final int pos = keys.indexOf(c);
+      return (pos >= 0) ? next.get(pos) : null;
+    }
+
+  }
+
+  public MultiReplacer(final List<String> from, final List<String> to) {
+    this(MultiReplacer.toChars(from), to.toArray(new String[to.size()]), null);
+  }
+
+  public MultiReplacer(final byte[][] from, final byte[][] to) {
+    this(MultiReplacer.toChars(from), null, to);
+  }
+
+  private MultiReplacer(final char[][] from, final String[] to, final byte[][] toBytes) {
+    this.to = to;
+    this.toBytes = toBytes;
+    length = new int[from.length];
+    final Node root = new Node();
+    final List<Node> nodes = new ArrayList<>();
+    nodes.add(root);
+    for (int p = 0; p < from.length; p++) {
+      final char[] pattern = from[p];
+      length[p] = pattern.length;
+      if (pattern.length == 0) {
+        continue;
+      }
+      Node node = root;
+      for (final char c : pattern) {
+        Node child = node.child(c);
+        if (child == null) {
+          child = new Node();
+          child.id = nodes.size();
+          child.depth = node.depth + 1;
+          nodes.add(child);
+          node.keys.add(c);
+          node.next.add(child);
+        }
+        node = child;
+      }
+      if (node.pattern < 0) {
+        node.pattern = p;
+      }
+    }
+    final int size = nodes.size();
+    keys = new char[size][];
+    next = new int[size][];
+    fail = new int[size];
+    depth = new int[size];
+    out = new int[size];
+    // Breadth first: fail links and outputs of a node depend on shallower nodes only
+    root.fail = root;
+    out[0] = -1;
+    final List<Node> queue = new ArrayList<>();
+    queue.add(root);
+    for (int q = 0; q < queue.size(); q++) {
+      final Node node = queue.get(q);
+      final int n = node.keys.size();
+      final Integer[] order = new Integer[n];
+      for (int i = 0; i < n; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, (a, b) -> Character.compare(node.keys.get(a), node.keys.get(b)));
+      keys[node.id] = (n > 0) ? new char[n] : MultiReplacer.NO_KEYS;
+      next[node.id] = (n > 0) ? new int[n] : MultiReplacer.NO_NEXT;
+      for (int i = 0; i < n; i++) {
+        final char c = node.keys.get(order[i]);
+        final Node child = node.next.get(order[i]);
+        keys[node.id][i] = c;
+        next[node.id][i] = child.id;
+        if (node == root) {
+          child.fail = root;
+        }
+        else {
+          Node f = node.fail;
+          while ((f != root) && (f.child(c) == null)) {
+            f = f.fail;
+          }
+          final Node t = f.child(c);
+          child.fail = (t != null) ? t : root;
+        }
+        fail[child.id] = child.fail.id;
+        depth[child.id] = child.depth;
+        out[child.id] = (child.pattern >= 0) ? child.pattern : out[child.fail.id];
+        queue.add(child);
+      }
+    }
+  }
+
+  private static char[][] toChars(final List<String> from) {
+    final char[][] result = new char[from.size()][];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = from.get(i).toCharArray();
+    }
+    return result;
+  }
+
+  private static char[][] toChars(final byte[][] from) {
+    final char[][] result = new char[from.length][];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = new char[from[i].length];
+      for (int j = 0; j < from[i].length; j++) {
+        result[i][j] = (char)(from[i][j] & 0xFF);
+      }
+    }
+    return result;
+  }
+
+  private int step(int state, final char c) {
+    while (true) {
+      final int pos = Arrays.binarySearch(keys[state], c);
+      if (pos >= 0) { return next[state][pos]; }
+      if (state == 0) { return 0; }
+      state = fail[state];
+    }
+  }
+
+  /**
+   * Find the next match in text[from, end).
+   *
+   * @param match - receives start position and length of the match
+   * @return the pattern index, -1 if there are no more matches.
+   */
+  public int find(final CharSequence text, final int from, final int end, final int[] match) {
+    int state = 0;
+    int found = -1;
+    int start = -1;
+    int i = from;
+    while (i < end) {
+      state = step(state, text.charAt(i++));
+      final int p = out[state];
+      if (p >= 0) {
+        final int s = i - length[p];
+        if ((found < 0) || (s < start) || ((s == start) && (length[p] > length[found]))) {
+          found = p;
+          start = s;
+        }
+      }
+      // No live prefix starting at or before the match: it cannot get longer
+      if ((found >= 0) && ((i - depth[state]) > start)) {
+        break;
+      }
+    }
+    if (found >= 0) {
+      match[0] = start;
+      match[1] = length[found];
+    }
+    return found;
+  }
+
+  public int find(final byte[] text, final int from, final int end, final int[] match) {
+    int state = 0;
+    int found = -1;
+    int start = -1;
+    int i = from;
+    while (i < end) {
+      state = step(state, (char)(text[i++] & 0xFF));
+      final int p = out[state];
+      if (p >= 0) {
+        final int s = i - length[p];
+        if ((found < 0) || (s < start) || ((s == start) && (length[p] > length[found]))) {
+          found = p;
+          start = s;
+        }
+      }
+      if ((found >= 0) && ((i - depth[state]) > start)) {
+        break;
+      }
+    }
+    if (found >= 0) {
+      match[0] = start;
+      match[1] = length[found];
+    }
+    return found;
+  }
+
+  public String getReplacement(final int pattern) {
+    return to[pattern];
+  }
+
+  public byte[] getReplacementBytes(final int pattern) {
+    return toBytes[pattern];
+  }
+
+  /**
+   * @return text with all the replacements applied, text itself if nothing matched.
+   */
+  public String replace(final String text) {
+    if (text == null) { return null; }
+    final int size = text.length();
+    final int[] match = new int[2];
+    int p = find(text, 0, size, match);
+    if (p < 0) { return text; }
+    final StringBuilder sb = new StringBuilder(size + 16);
+    int last = 0;
+    while (p >= 0) {
+      sb.append(text, last, match[0]).append(to[p]);
+      last = match[0] + match[1];
+      p = find(text, last, size, match);
+    }
+    sb.append(text, last, size);
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 1999-2021 Enrico Croce - AGPL >= 3.0
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package net.eiroca.sysadm.flume.util.interceptors;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.eiroca.sysadm.flume.core.util.CompiledMacro;
+
+/**
+ * Maps an event to the candidate rule names of a list of rule formats.
+ *
+ * When every format depends only on headers the expanded names are a function of the values of
+ * those headers, so they are computed once per distinct tuple of values and kept in a trie (one
+ * level per referenced header). Otherwise the formats are expanded per event.
+ */
+public class RuleSelector {
+
+  private static final String MISSING = "";
+
+  private final CompiledMacro[] ruleFormat;
+  private final String[] keys;
+  private final int maxSize;
+
+  private volatile ConcurrentHashMap<String, Object> root = new ConcurrentHashMap<>();
+  private final AtomicInteger size = new AtomicInteger();
+
+  /**
+   * @param ruleFormat - rule name templates, in priority order
+   * @param maxSize - max number of distinct tuples kept, the index is reset when it is exceeded
+   */
+  public RuleSelector(final CompiledMacro[] ruleFormat, final int maxSize) {
+    this.ruleFormat = (ruleFormat != null) ? ruleFormat : new CompiledMacro[0];
+    this.maxSize = maxSize;
+    final List<String> names = new ArrayList<>();
+    boolean indexable = true;
+    for (final CompiledMacro rule : this.ruleFormat) {
+      final String[] ruleKeys = rule.getHeaderKeys();
+      if (ruleKeys == null) {
+        indexable = false;
+        break;
+      }
+      for (final String key : ruleKeys) {
+        if (!names.contains(key)) {
+          names.add(key);
+        }
+      }
+    }
+    keys = indexable ? names.toArray(new String[names.size()]) : null;
+  }
+
+  public boolean isIndexed() {
+    return keys != null;
+  }
+
+  /**
+   * @return the rule names for the event, in priority order.
+   */
+  @SuppressWarnings("unchecked")
+  public String[] select(final Map<String, String> headers) {
+    if (keys == null) { return expand(headers); }
+    final ConcurrentHashMap<String, Object> start = root;
+    ConcurrentHashMap<String, Object> node = start;
+    final int last = keys.length - 1;
+    for (int i = 0; i < last; i++) {
+      final String value = RuleSelector.value(headers, keys[i]);
+      ConcurrentHashMap<String, Object> next = (ConcurrentHashMap<String, Object>)node.get(value);
+      if (next == null) {
+        next = new ConcurrentHashMap<>();
+        final Object old = node.putIfAbsent(value, next);
+        if (old != null) {
+          next = (ConcurrentHashMap<String, Object>)old;
+        }
+      }
+      node = next;
+    }
+    final String leaf = (last >= 0) ? RuleSelector.value(headers, keys[last]) : RuleSelector.MISSING;
+    String[] result = (String[])node.get(leaf);
+    if (result == null) {
+      result = expand(headers);
+      if (node.putIfAbsent(leaf, result) == null) {
+        if (size.incrementAndGet() > maxSize) {
+          size.set(0);
+          root = new ConcurrentHashMap<>();
+        }
+      }
+    }
+    return result;
+  }
+
+  private String[] expand(final Map<String, String> headers) {
+    final String[] result = new String[ruleFormat.length];
+    for (int i = 0; i < ruleFormat.length; i++) {
+      result[i] = ruleFormat[i].expand(headers);
+    }
+    return result;
+  }
+
+  private static String value(final Map<String, String> headers, final String key) {
+    final String value = (headers != null) ? headers.get(key) : null;
+    return (value != null) ? value : RuleSelector.MISSING;
+  }
+
+}
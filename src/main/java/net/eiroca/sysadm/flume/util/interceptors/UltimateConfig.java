@@ -16,6 +16,7 @@
  **/
 package net.eiroca.sysadm.flume.util.interceptors;
 
+import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -43,6 +44,7 @@ import net.eiroca.sysadm.flume.api.IExtractor;
 import net.eiroca.sysadm.flume.core.actions.Actions;
 import net.eiroca.sysadm.flume.core.extractors.Extractors;
 import net.eiroca.sysadm.flume.core.filters.Filters;
+import net.eiroca.sysadm.flume.core.util.CompiledMacro;
 import net.eiroca.sysadm.flume.plugin.UltimateInterceptor;
 import net.eiroca.sysadm.flume.type.action.ActionExtractor;
 import net.eiroca.sysadm.flume.type.extractor.util.FieldConfig;
@@ -77,6 +79,7 @@ public class UltimateConfig {
   final private transient BooleanParameter pReplacementsStandard = new BooleanParameter(paramsBody, "standard-replacements", false);
   final private transient ListParameter pReplacementsCustom = new ListParameter(paramsBody, "replacements", null);
   final private transient IntegerParameter pBodyLimit = new IntegerParameter(paramsBody, "limit", -1);
+  final private transient BooleanParameter pBytePipeline = new BooleanParameter(paramsBody, "byte-pipeline", false);
 
   final private transient Parameters paramsReplacement = new Parameters();
   final private transient StringParameter pReplacementFrom = new StringParameter(paramsReplacement, "from", null, true);
@@ -102,6 +105,7 @@ public class UltimateConfig {
   public boolean silentError;
 
   public List<PairEntry<String, String>> replacements = new ArrayList<>();
+  public transient MultiReplacer replacer;
   public boolean standardReplacements;
 
   public List<IAction> headers = new ArrayList<>();
@@ -111,16 +115,21 @@ public class UltimateConfig {
 
   public int bodyLimit = -1;
 
+  // Not null when the body is transformed at byte level
+  public transient BodyTransformer bodyTransformer;
+  // false when nothing but the body transformation needs the decoded body
+  public boolean needsText = true;
+
   public IEventFilter filter;
 
   public List<IExtractor> extractors = new ArrayList<>();
   public Map<String, FieldConfig> extractorsFields = new HashMap<>();
 
-  public String successOutput;
+  public CompiledMacro successOutput;
   public String successEncoding;
   public List<IAction> successHeaders = new ArrayList<>();
 
-  public String failedOutput;
+  public CompiledMacro failedOutput;
   public String failedEncoding;
   public List<IAction> failedHeaders = new ArrayList<>();
 
@@ -257,6 +266,7 @@ public class UltimateConfig {
     standardReplacements = pReplacementsStandard.get();
     replacements.clear();
     loadCustomReplacement(config, replacements, pReplacementsCustom.get());
+    replacer = UltimateConfig.buildReplacer(replacements);
     // Filter
     filter = Filters.buildFilter(config, UltimateConfig.CTX_FITLER_PREFIX, pFilterType.get(), pFilterMatch.get());
     // Transform
@@ -287,14 +297,42 @@ public class UltimateConfig {
     extractorsFields = ActionExtractor.buildExtractorFields(extractors, pExtractorFields.get(), config, UltimateConfig.CTX_EXTRACTORFIELD_PREFIX);
     // Success Actions
     paramsSuccess.loadConfig(config, UltimateConfig.CTX_SUCCESS_PREFIX);
-    successOutput = pSuccessOutput.get();
+    successOutput = CompiledMacro.compile(pSuccessOutput.get());
     successEncoding = pSuccessEncoding.get();
     Actions.load(pSuccessHeaders.get(), config, UltimateConfig.CTX_SUCCESS_PREFIX + UltimateConfig.CTX_HEADER_PREFIX, successHeaders);
     // Failed Actions
     paramsFailed.loadConfig(config, UltimateConfig.CTX_FAILED_PREFIX);
-    failedOutput = pFailedOutput.get();
+    failedOutput = CompiledMacro.compile(pFailedOutput.get());
     failedEncoding = pFailedEncoding.get();
     Actions.load(pFailedHeaders.get(), config, UltimateConfig.CTX_FAILED_PREFIX + UltimateConfig.CTX_HEADER_PREFIX, failedHeaders);
+    needsText = (filter != null) || (extractors.size() > 0) || (headers.size() > 0) || (successOutput != null) || (successHeaders.size() > 0) || (failedOutput != null) || (failedHeaders.size() > 0) || (successEncoding != null);
+    bodyTransformer = null;
+    if (pBytePipeline.get()) {
+      Charset charset = null;
+      try {
+        charset = Charset.forName(encoding);
+      }
+      catch (final Exception e) {
+        UltimateConfig.logger.warn("Unknown encoding {}", encoding);
+      }
+      if ((charset != null) && BodyTransformer.isSupported(charset)) {
+        bodyTransformer = new BodyTransformer(charset, lTrim, rTrim, standardReplacements, replacements);
+      }
+      else {
+        UltimateConfig.logger.warn("byte-pipeline not available for encoding {}", encoding);
+      }
+    }
+  }
+
+  private static MultiReplacer buildReplacer(final List<PairEntry<String, String>> replacements) {
+    if (replacements.isEmpty()) { return null; }
+    final List<String> from = new ArrayList<>();
+    final List<String> to = new ArrayList<>();
+    for (final PairEntry<String, String> replacement : replacements) {
+      from.add(replacement.getLeft());
+      to.add(replacement.getRight());
+    }
+    return new MultiReplacer(from, to);
   }
 
   private void loadCustomReplacement(final ImmutableMap<String, String> config, final List<PairEntry<String, String>> replacements, final String[] customReplacements) {
@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 1999-2021 Enrico Croce - AGPL >= 3.0
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package net.eiroca.sysadm.flume.util.interceptors;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.eiroca.library.system.Logs;
+
+/**
+ * Thread-safe cache of the external rules of UltimateInterceptor, keyed by rule file name.
+ *
+ * Missing/invalid rules are cached too (as null) but, as any other entry, they are revalidated
+ * against the file modification time every checkInterval ms. Revalidation and reload run on a
+ * background thread, the caller always gets the current value without waiting. Only the first
+ * lookup of a rule reads it synchronously. Lookups take no lock: each entry records its last access
+ * and when more than maxSize rules are cached the least recently used ones are evicted down to 90% of
+ * maxSize (approximate LRU, accesses racing with the eviction may be missed).
+ */
+public class UltimateConfigCache {
+
+  transient private static final Logger logger = Logs.getLogger();
+
+  private static final ExecutorService reloader = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("ultimate-rule-reloader").setDaemon(true).build());
+
+  private static class Entry {
+
+    final String ruleName;
+    volatile UltimateConfig config;
+    volatile long modified;
+    volatile long nextCheck;
+    volatile long lastAccess;
+    final AtomicBoolean checking = new AtomicBoolean(false);
+
+    Entry(final String ruleName) {
+      this.ruleName = ruleName;
+    }
+
+  }
+
+  private final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<>();
+  private final AtomicBoolean evicting = new AtomicBoolean(false);
+  private final int maxSize;
+  private final long checkInterval;
+
+  /**
+   * @param maxSize - max number of cached rules, <=0 unbounded
+   * @param checkInterval - ms between file checks, <=0 never reload
+   */
+  public UltimateConfigCache(final int maxSize, final long checkInterval) {
+    this.maxSize = maxSize;
+    this.checkInterval = checkInterval;
+  }
+
+  public UltimateConfig get(final String ruleName) {
+    final long now = System.currentTimeMillis();
+    Entry entry = cache.get(ruleName);
+    if (entry == null) {
+      // concurrent first lookups may read the rule twice, only one of them is kept
+      final Entry loaded = load(ruleName, now);
+      entry = cache.putIfAbsent(ruleName, loaded);
+      if (entry == null) {
+        entry = loaded;
+        if ((maxSize > 0) && (cache.size() > maxSize)) {
+          evict();
+        }
+      }
+    }
+    else if ((checkInterval > 0) && (now >= entry.nextCheck) && entry.checking.compareAndSet(false, true)) {
+      final Entry toCheck = entry;
+      try {
+        UltimateConfigCache.reloader.execute(() -> revalidate(toCheck));
+      }
+      catch (final Exception e) {
+        toCheck.checking.set(false);
+        UltimateConfigCache.logger.debug("Unable to schedule check of {}", ruleName, e);
+      }
+    }
+    if (entry.lastAccess != now) {
+      entry.lastAccess = now;
+    }
+    return entry.config;
+  }
+
+  public int size() {
+    return cache.size();
+  }
+
+  public void clear() {
+    cache.clear();
+  }
+
+  // one thread evicts, the others go on over the bound until it is done
+  private void evict() {
+    if (!evicting.compareAndSet(false, true)) { return; }
+    try {
+      final List<Entry> entries = new ArrayList<>(cache.values());
+      final int toRemove = entries.size() - (maxSize - (maxSize / 10));
+      if (toRemove <= 0) { return; }
+      Collections.sort(entries, (a, b) -> Long.compare(a.lastAccess, b.lastAccess));
+      for (int i = 0; i < toRemove; i++) {
+        final Entry entry = entries.get(i);
+        if (cache.remove(entry.ruleName, entry)) {
+          UltimateConfigCache.logger.debug("Evicted rule {}", entry.ruleName);
+        }
+      }
+    }
+    finally {
+      evicting.set(false);
+    }
+  }
+
+  private Entry load(final String ruleName, final long now) {
+    final Entry entry = new Entry(ruleName);
+    entry.modified = UltimateConfigCache.lastModified(ruleName);
+    entry.config = UltimateConfig.readRule(ruleName);
+    entry.nextCheck = now + checkInterval;
+    entry.lastAccess = now;
+    return entry;
+  }
+
+  private void revalidate(final Entry entry) {
+    try {
+      final long modified = UltimateConfigCache.lastModified(entry.ruleName);
+      if (modified != entry.modified) {
+        UltimateConfigCache.logger.info("Rule {} changed, reloading", entry.ruleName);
+        final UltimateConfig config = (modified != 0) ? UltimateConfig.readRule(entry.ruleName) : null;
+        if ((config != null) || (modified == 0) || (entry.config == null)) {
+          entry.config = config;
+        }
+        else {
+          UltimateConfigCache.logger.warn("Rule {} is invalid, keeping the previous version", entry.ruleName);
+        }
+        entry.modified = modified;
+      }
+    }
+    catch (final Exception e) {
+      UltimateConfigCache.logger.warn("Error checking rule {}", entry.ruleName, e);
+    }
+    finally {
+      entry.nextCheck = System.currentTimeMillis() + checkInterval;
+      entry.checking.set(false);
+    }
+  }
+
+  // 0 if the file does not exist
+  private static long lastModified(final String ruleName) {
+    return new File(ruleName).lastModified();
+  }
+
+}
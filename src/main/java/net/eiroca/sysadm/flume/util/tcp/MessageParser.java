@@ -18,6 +18,7 @@ package net.eiroca.sysadm.flume.util.tcp;
 
 import java.util.HashMap;
 import java.util.Map;
+import org.apache.mina.core.buffer.IoBuffer;
 import org.slf4j.Logger;
 
 public class MessageParser {
@@ -83,31 +84,19 @@ public class MessageParser {
         sizeBuffer[0] = datum;
         byteToRead = sizeLength - 1;
         byteRead = 1;
-        logger.trace("Reading Size " + sizeLength);
+        if (logger.isTraceEnabled()) {
+          logger.trace("Reading Size " + sizeLength);
+        }
+        if (byteToRead == 0) {
+          headerComplete();
+        }
         break;
       case STATE_HEADER: // Read Message Size
         sizeBuffer[byteRead] = datum;
         byteRead++;
         byteToRead--;
         if (byteToRead == 0) {
-          byteToRead = getMessageSize(sizeBuffer);
-          if (byteToRead < 1) {
-            state = MessageParser.STATE_INVALID;
-            final StringBuffer msg = new StringBuffer(1024);
-            msg.append("Invalid packet size");
-            for (final byte element : sizeBuffer) {
-              msg.append(' ').append(element);
-            }
-            logger.info(msg.toString());
-          }
-          else {
-            logger.trace("Reading Message " + byteToRead);
-            byteRead = 0;
-            state = byteToRead <= maxBufferLength ? MessageParser.STATE_READ : MessageParser.STATE_SKIP;
-            if (state == MessageParser.STATE_READ) {
-              dataBuffer = new byte[byteToRead];
-            }
-          }
+          headerComplete();
         }
         break;
       case STATE_READ: // Read message
@@ -115,30 +104,14 @@ public class MessageParser {
         byteToRead--;
         byteRead++;
         if (byteToRead == 0) {
-          logger.trace("Process Message " + dataBuffer.length);
-          state = MessageParser.STATE_IDLE;
-          try {
-            callback.messageComplete(metadata, dataBuffer);
-          }
-          catch (final Exception e) {
-            lastException = e;
-            result = false;
-          }
+          result = messageComplete(dataBuffer);
         }
         break;
       case STATE_SKIP: // SKIP message
         byteToRead--;
         byteRead++;
         if (byteToRead == 0) {
-          logger.trace("Skip Message " + byteRead);
-          state = MessageParser.STATE_IDLE;
-          try {
-            callback.messageSkipped();
-          }
-          catch (final Exception e) {
-            lastException = e;
-            result = false;
-          }
+          result = messageSkipped();
         }
         break;
       default:
@@ -147,6 +120,118 @@ public class MessageParser {
     return result;
   }
 
+  /**
+   * Parse all the bytes remaining in buf. Headers and payloads are copied in bulk, the byte state
+   * machine is used only for a header split across buffers.
+   *
+   * @return false if a callback failed or the stream is invalid
+   */
+  public boolean process(final IoBuffer buf) {
+    boolean result = true;
+    int n;
+    while (buf.hasRemaining()) {
+      switch (state) {
+        case STATE_IDLE:
+          if (buf.remaining() < sizeLength) {
+            result = process(buf.get()) && result;
+            break;
+          }
+          buf.get(sizeBuffer, 0, sizeLength);
+          byteToRead = getMessageSize(sizeBuffer);
+          if ((byteToRead > 0) && (byteToRead <= maxBufferLength) && (buf.remaining() >= byteToRead)) {
+            // complete frame
+            final byte[] data = new byte[byteToRead];
+            buf.get(data, 0, byteToRead);
+            result = messageComplete(data) && result;
+          }
+          else {
+            headerComplete();
+          }
+          break;
+        case STATE_READ:
+          n = Math.min(buf.remaining(), byteToRead);
+          buf.get(dataBuffer, byteRead, n);
+          byteRead += n;
+          byteToRead -= n;
+          if (byteToRead == 0) {
+            result = messageComplete(dataBuffer) && result;
+          }
+          break;
+        case STATE_SKIP:
+          n = Math.min(buf.remaining(), byteToRead);
+          buf.position(buf.position() + n);
+          byteRead += n;
+          byteToRead -= n;
+          if (byteToRead == 0) {
+            result = messageSkipped() && result;
+          }
+          break;
+        case STATE_HEADER:
+          result = process(buf.get()) && result;
+          break;
+        default:
+          buf.position(buf.limit());
+          return false;
+      }
+    }
+    return result;
+  }
+
+  // Message size is in sizeBuffer, byteToRead
+  private void headerComplete() {
+    byteToRead = getMessageSize(sizeBuffer);
+    if (byteToRead < 1) {
+      state = MessageParser.STATE_INVALID;
+      final StringBuffer msg = new StringBuffer(1024);
+      msg.append("Invalid packet size");
+      for (final byte element : sizeBuffer) {
+        msg.append(' ').append(element);
+      }
+      logger.info(msg.toString());
+    }
+    else {
+      if (logger.isTraceEnabled()) {
+        logger.trace("Reading Message " + byteToRead);
+      }
+      byteRead = 0;
+      state = byteToRead <= maxBufferLength ? MessageParser.STATE_READ : MessageParser.STATE_SKIP;
+      if (state == MessageParser.STATE_READ) {
+        dataBuffer = new byte[byteToRead];
+      }
+    }
+  }
+
+  private boolean messageComplete(final byte[] data) {
+    if (logger.isTraceEnabled()) {
+      logger.trace("Process Message " + data.length);
+    }
+    state = MessageParser.STATE_IDLE;
+    dataBuffer = null;
+    try {
+      callback.messageComplete(metadata, data);
+    }
+    catch (final Exception e) {
+      lastException = e;
+      return false;
+    }
+    return true;
+  }
+
+  private boolean messageSkipped() {
+    if (logger.isTraceEnabled()) {
+      logger.trace("Skip Message " + byteRead);
+    }
+    state = MessageParser.STATE_IDLE;
+    try {
+      callback.messageSkipped();
+    }
+    catch (final Exception e) {
+      lastException = e;
+      return false;
+    }
+    return true;
+  }
+
   public int getState() {
     return state;
   }
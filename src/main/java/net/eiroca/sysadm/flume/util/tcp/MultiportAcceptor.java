@@ -18,8 +18,19 @@ package net.eiroca.sysadm.flume.util.tcp;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.flume.ChannelException;
 import org.apache.flume.Event;
 import org.apache.flume.channel.ChannelProcessor;
@@ -35,58 +46,195 @@ import net.eiroca.library.core.LibStr;
 import net.eiroca.sysadm.flume.core.util.FlumeHelper;
 import net.eiroca.sysadm.flume.plugin.MultiportTCPSource;
 
-public class MultiportAcceptor extends IoHandlerAdapter implements MessageParser.Callback {
+public class MultiportAcceptor extends IoHandlerAdapter {
+
+  /**
+   * How the frame becomes the event body: DECODE converts it to a String and back to bytes in the
+   * platform charset, PASS keeps the received bytes, VALIDATE keeps them if they are valid in the
+   * source encoding and decodes them otherwise.
+   */
+  public enum BodyMode {
+    DECODE, PASS, VALIDATE
+  }
 
   private static final Logger logger = LoggerFactory.getLogger(MultiportAcceptor.class);
 
   private static final String SAVED_PARSER = "savedParser";
+  private static final String SAVED_BATCH = "savedBatch";
   private final ChannelProcessor channelProcessor;
   private final int maxEventSize;
   private final SourceCounter sourceCounter;
   private final HashMap<String, String> headers;
   private final String encoding;
+  private final int batchSize;
+  private final long batchLinger;
+  private final BodyMode bodyMode;
+  private final Charset charset;
+  private final ReverseDNSCache dnsCache;
+  private final Set<SessionBatch> batches = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Events decoded from a session, sent to the channel in one transaction.
+   */
+  private class SessionBatch implements MessageParser.Callback {
+
+    private final List<Event> events = new ArrayList<>(batchSize);
+    // time of the oldest event in the batch
+    private long first;
+    // session headers, copied into every event
+    private Map<String, String> headers = Collections.emptyMap();
+    // VALIDATE mode only, used by the session I/O thread
+    private final CharsetDecoder decoder;
+    private final CharBuffer chars;
+
+    SessionBatch() {
+      if (bodyMode == BodyMode.VALIDATE) {
+        decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPORT).onUnmappableCharacter(CodingErrorAction.REPORT);
+        chars = CharBuffer.allocate(1024);
+      }
+      else {
+        decoder = null;
+        chars = null;
+      }
+    }
+
+    private boolean isValid(final byte[] buffer) {
+      final ByteBuffer in = ByteBuffer.wrap(buffer);
+      decoder.reset();
+      CoderResult result;
+      do {
+        chars.clear();
+        result = decoder.decode(in, chars, true);
+        if (result.isError()) { return false; }
+      }
+      while (result.isOverflow());
+      chars.clear();
+      return !decoder.flush(chars).isError();
+    }
+
+    @Override
+    public void messageSkipped() throws IOException {
+      MultiportAcceptor.logger.debug("Event skipped");
+    }
+
+    @Override
+    public void messageComplete(final Map<String, Object> metadata, final byte[] buffer) throws IOException {
+      final byte[] body;
+      switch (bodyMode) {
+        case PASS:
+          body = buffer;
+          break;
+        case VALIDATE:
+          if (isValid(buffer)) {
+            body = buffer;
+          }
+          else {
+            MultiportAcceptor.logger.debug("Invalid {} event body", charset);
+            body = decode(buffer);
+          }
+          break;
+        default:
+          body = decode(buffer);
+          break;
+      }
+      MultiportAcceptor.logger.debug("Event received");
+      final Event event = EventBuilder.withBody(body, headers);
+      synchronized (this) {
+        if (events.isEmpty()) {
+          first = System.currentTimeMillis();
+        }
+        events.add(event);
+        if (events.size() >= batchSize) {
+          flush();
+        }
+      }
+    }
+
+    public synchronized void flush() {
+      final int size = events.size();
+      if (size == 0) { return; }
+      if (MultiportAcceptor.logger.isTraceEnabled()) {
+        MultiportAcceptor.logger.trace("Sending batch size=" + size);
+      }
+      sourceCounter.incrementAppendBatchReceivedCount();
+      sourceCounter.addToEventReceivedCount(size);
+      try {
+        channelProcessor.processEventBatch(events);
+        sourceCounter.incrementAppendBatchAcceptedCount();
+        sourceCounter.addToEventAcceptedCount(size);
+      }
+      catch (final ChannelException ex) {
+        MultiportAcceptor.logger.warn("Error processing " + size + " events. Exception follows.", ex);
+      }
+      finally {
+        events.clear();
+      }
+    }
+
+    public synchronized void flushExpired(final long now) {
+      if (!events.isEmpty() && ((now - first) >= batchLinger)) {
+        flush();
+      }
+    }
+
+  }
 
   public MultiportAcceptor(final int maxEventSize, final ChannelProcessor cp, final SourceCounter ctr, final HashMap<String, String> headers, final String encoding) {
+    this(maxEventSize, cp, ctr, headers, encoding, 1, 0, BodyMode.DECODE, null);
+  }
+
+  /**
+   * @param batchSize - max events sent to the channel in one transaction
+   * @param batchLinger - ms an incomplete batch may wait (see {@link #flushExpired()}), 0 to flush
+   *          at the end of every read
+   * @param bodyMode - how frames are turned into event bodies
+   * @param dnsCache - reverse DNS cache shared by the sessions, null to resolve on every connection
+   */
+  public MultiportAcceptor(final int maxEventSize, final ChannelProcessor cp, final SourceCounter ctr, final HashMap<String, String> headers, final String encoding, final int batchSize, final long batchLinger, final BodyMode bodyMode, final ReverseDNSCache dnsCache) {
     channelProcessor = cp;
     sourceCounter = ctr;
     this.maxEventSize = maxEventSize;
     this.headers = headers;
     this.encoding = encoding;
+    this.batchSize = Math.max(1, batchSize);
+    this.batchLinger = Math.max(0, batchLinger);
+    Charset cs = null;
+    BodyMode mode = (bodyMode != null) ? bodyMode : BodyMode.DECODE;
+    if (mode == BodyMode.VALIDATE) {
+      try {
+        cs = Charset.forName(encoding);
+      }
+      catch (final Exception e) {
+        MultiportAcceptor.logger.warn("Unsupported encoding {}, body validation disabled", encoding);
+        mode = BodyMode.DECODE;
+      }
+    }
+    this.bodyMode = mode;
+    charset = cs;
+    this.dnsCache = dnsCache;
   }
 
-  @Override
-  public void messageSkipped() throws IOException {
-    MultiportAcceptor.logger.debug("Event skipped");
+  /**
+   * Send the batches waiting for more than the linger time.
+   */
+  public void flushExpired() {
+    final long now = System.currentTimeMillis();
+    for (final SessionBatch batch : batches) {
+      batch.flushExpired(now);
+    }
   }
 
-  @Override
-  public void messageComplete(final Map<String, Object> metadata, final byte[] buffer) throws IOException {
-    MultiportAcceptor.logger.debug("Event received");
-    sourceCounter.addToEventReceivedCount(1);
-    final String message = LibStr.getMessage(buffer, encoding, FlumeHelper.BODY_ERROR_MESSAGE);
-    final Event event = EventBuilder.withBody(message.getBytes());
-    final Map<String, String> headers = event.getHeaders();
-    for (final String key : metadata.keySet()) {
-      final Object val = metadata.get(key);
-      if (val != null) {
-        headers.put(key, val.toString());
-      }
-    }
-    // process event
-    MultiportAcceptor.logger.trace("Sending event body.length=" + message.length());
-    ChannelException ex = null;
-    try {
-      channelProcessor.processEvent(event);
-      sourceCounter.addToEventAcceptedCount(1);
-    }
-    catch (final ChannelException chEx) {
-      ex = chEx;
-    }
-    if (ex != null) {
-      MultiportAcceptor.logger.warn("Error processing event. Exception follows.", ex);
+  public void flushAll() {
+    for (final SessionBatch batch : batches) {
+      batch.flush();
     }
   }
 
+  private byte[] decode(final byte[] buffer) {
+    final String message = LibStr.getMessage(buffer, encoding, FlumeHelper.BODY_ERROR_MESSAGE);
+    return message.getBytes();
+  }
+
   @Override
   public void exceptionCaught(final IoSession session, final Throwable cause) throws Exception {
     MultiportTCPSource.logger.error("Error in message handler", cause);
@@ -100,11 +248,14 @@ public class MultiportAcceptor extends IoHandlerAdapter implements MessageParser
     MultiportTCPSource.logger.debug("Session created: {}", session);
     // Allocate saved buffer when session is created.
     // This allows us to parse an incomplete message and use it on the next request.
-    final MessageParser parser = new MessageParser(MultiportAcceptor.logger, this, 4, maxEventSize);
+    final SessionBatch batch = new SessionBatch();
+    final MessageParser parser = new MessageParser(MultiportAcceptor.logger, batch, 4, maxEventSize);
     session.setAttribute(MultiportAcceptor.SAVED_PARSER, parser);
+    session.setAttribute(MultiportAcceptor.SAVED_BATCH, batch);
+    final Map<String, String> sessionHeaders = new HashMap<>();
     final String headerP = headers.get(MultiportTCPSource.HEADER_PORT);
     if (headerP != null) {
-      parser.setMetadata(headerP, ((InetSocketAddress)session.getLocalAddress()).getPort());
+      sessionHeaders.put(headerP, String.valueOf(((InetSocketAddress)session.getLocalAddress()).getPort()));
     }
     final String headerH = headers.get(MultiportTCPSource.HEADER_HOST);
     final String headerN = headers.get(MultiportTCPSource.HEADER_HOSTNAME);
@@ -113,32 +264,37 @@ public class MultiportAcceptor extends IoHandlerAdapter implements MessageParser
     if ((headerH != null) || (headerN != null) || (headerS != null) || (headerD != null)) {
       final InetSocketAddress src = (InetSocketAddress)session.getRemoteAddress();
       final String host = src.getHostString();
-      final String hostname = ((InetSocketAddress)session.getRemoteAddress()).getHostName();
-      final boolean isIP = host.equals(hostname);
-      String server;
-      String domain;
-      if (!isIP) {
-        final int pos = hostname.indexOf('.');
-        server = (pos > 0) ? hostname.substring(0, pos) : hostname;
-        domain = (pos > 0) ? hostname.substring(pos + 1, hostname.length()) : "";
-      }
-      else {
-        server = host;
-        domain = "";
-      }
       if (headerH != null) {
-        parser.setMetadata(headerH, host);
+        sessionHeaders.put(headerH, host);
       }
-      if (headerN != null) {
-        parser.setMetadata(headerN, hostname);
-      }
-      if (headerS != null) {
-        parser.setMetadata(headerS, server.trim().toUpperCase());
-      }
-      if (headerS != null) {
-        parser.setMetadata(headerD, domain.trim().toLowerCase());
+      if ((headerN != null) || (headerS != null) || (headerD != null)) {
+        // reverse lookup only when a name is needed
+        final String hostname = (dnsCache != null) ? dnsCache.getHostName(src) : src.getHostName();
+        final boolean isIP = host.equals(hostname);
+        String server;
+        String domain;
+        if (!isIP) {
+          final int pos = hostname.indexOf('.');
+          server = (pos > 0) ? hostname.substring(0, pos) : hostname;
+          domain = (pos > 0) ? hostname.substring(pos + 1, hostname.length()) : "";
+        }
+        else {
+          server = host;
+          domain = "";
+        }
+        if (headerN != null) {
+          sessionHeaders.put(headerN, hostname);
+        }
+        if (headerS != null) {
+          sessionHeaders.put(headerS, server.trim().toUpperCase());
+        }
+        if (headerD != null) {
+          sessionHeaders.put(headerD, domain.trim().toLowerCase());
+        }
       }
     }
+    batch.headers = Collections.unmodifiableMap(sessionHeaders);
+    batches.add(batch);
   }
 
   @Override
@@ -149,6 +305,11 @@ public class MultiportAcceptor extends IoHandlerAdapter implements MessageParser
   @Override
   public void sessionClosed(final IoSession session) {
     MultiportTCPSource.logger.debug("Session closed: {}", session);
+    final SessionBatch batch = (SessionBatch)session.getAttribute(MultiportAcceptor.SAVED_BATCH);
+    if (batch != null) {
+      batch.flush();
+      batches.remove(batch);
+    }
   }
 
   @Override
@@ -156,9 +317,10 @@ public class MultiportAcceptor extends IoHandlerAdapter implements MessageParser
     MultiportAcceptor.logger.trace("Message received");
     final IoBuffer buf = (IoBuffer)message;
     final MessageParser parser = (MessageParser)session.getAttribute(MultiportAcceptor.SAVED_PARSER);
-    while (buf.hasRemaining()) {
-      final byte datum = buf.get();
-      parser.process(datum);
+    parser.process(buf);
+    if (batchLinger == 0) {
+      final SessionBatch batch = (SessionBatch)session.getAttribute(MultiportAcceptor.SAVED_BATCH);
+      batch.flush();
     }
   }
 
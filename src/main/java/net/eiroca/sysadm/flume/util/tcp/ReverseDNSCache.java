@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 1999-2021 Enrico Croce - AGPL >= 3.0
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package net.eiroca.sysadm.flume.util.tcp;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded reverse DNS cache, names are resolved again after ttl ms. When full, expired entries are
+ * dropped first and the whole cache if none expired.
+ */
+public class ReverseDNSCache {
+
+  private static final class Entry {
+
+    final String name;
+    final long expire;
+
+    Entry(final String name, final long expire) {
+      this.name = name;
+      this.expire = expire;
+    }
+
+  }
+
+  private final ConcurrentHashMap<InetAddress, Entry> cache = new ConcurrentHashMap<>();
+  private final int maxSize;
+  private final long ttl;
+
+  /**
+   * @param maxSize - max cached addresses
+   * @param ttl - ms a name is valid, <=0 disables the cache
+   */
+  public ReverseDNSCache(final int maxSize, final long ttl) {
+    this.maxSize = Math.max(1, maxSize);
+    this.ttl = ttl;
+  }
+
+  public String getHostName(final InetSocketAddress address) {
+    final InetAddress ip = address.getAddress();
+    if ((ip == null) || (ttl <= 0)) { return address.getHostName(); }
+    final long now = System.currentTimeMillis();
+    final Entry entry = cache.get(ip);
+    if ((entry != null) && (now < entry.expire)) { return entry.name; }
+    final String name = ip.getHostName();
+    if ((entry == null) && (cache.size() >= maxSize)) {
+      evict(now);
+    }
+    cache.put(ip, new Entry(name, now + ttl));
+    return name;
+  }
+
+  private void evict(final long now) {
+    for (final Iterator<Entry> i = cache.values().iterator(); i.hasNext();) {
+      if (now >= i.next().expire) {
+        i.remove();
+      }
+    }
+    if (cache.size() >= maxSize) {
+      cache.clear();
+    }
+  }
+
+  public int size() {
+    return cache.size();
+  }
+
+}
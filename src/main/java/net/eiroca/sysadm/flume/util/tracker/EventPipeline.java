@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 1999-2021 Enrico Croce - AGPL >= 3.0
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package net.eiroca.sysadm.flume.util.tracker;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.flume.Event;
+import org.slf4j.Logger;
+import com.google.common.util.concurrent.Uninterruptibles;
+import net.eiroca.library.system.Logs;
+import net.eiroca.sysadm.flume.api.ext.IEventProcessor;
+
+/**
+ * Bounded queue of event batches between the tracker readers and the channel. A single handoff
+ * thread delivers the batches in order to the receiver, retrying a batch until it is accepted, so
+ * readers wait only when the queue is full. The position of a batch becomes durable (see
+ * {@link SourceTrack#durablePos()}) once the batch is delivered.
+ */
+public class EventPipeline implements Runnable {
+
+  transient private static final Logger logger = Logs.getLogger();
+
+  private static final long POLL_TIMEOUT = 100;
+  private static final long STOP_TIMEOUT = 30 * 1000;
+
+  public interface DeliveryListener {
+
+    void delivered(SourceTrack ts, long position);
+
+  }
+
+  private static final class Batch {
+
+    final SourceTrack ts;
+    final List<Event> events;
+    final long position;
+
+    Batch(final SourceTrack ts, final List<Event> events, final long position) {
+      this.ts = ts;
+      this.events = events;
+      this.position = position;
+    }
+
+  }
+
+  private final IEventProcessor receiver;
+  private final DeliveryListener listener;
+  private final BlockingQueue<Batch> queue;
+  private final HandoffCounter counter;
+  private final Thread thread;
+  private volatile boolean running;
+
+  public EventPipeline(final String name, final IEventProcessor receiver, final DeliveryListener listener, final int capacity) {
+    this.receiver = receiver;
+    this.listener = listener;
+    queue = new ArrayBlockingQueue<>(capacity);
+    counter = new HandoffCounter("HANDOFF." + name, capacity);
+    thread = new Thread(this, name + "-handoff");
+    thread.setDaemon(true);
+  }
+
+  public void start() {
+    running = true;
+    counter.start();
+    thread.start();
+  }
+
+  /**
+   * Stop accepting batches and deliver the queued ones (waiting at most STOP_TIMEOUT ms), batches
+   * not delivered will be read again as their position is not durable.
+   */
+  public void stop() {
+    running = false;
+    Uninterruptibles.joinUninterruptibly(thread, EventPipeline.STOP_TIMEOUT, TimeUnit.MILLISECONDS);
+    if (thread.isAlive()) {
+      EventPipeline.logger.warn("{} still delivering, {} batch(es) queued", thread.getName(), queue.size());
+    }
+    counter.stop();
+  }
+
+  /**
+   * Queue the events read from ts up to position, waiting if the queue is full. A source is
+   * submitted by one reader at a time, before its lastPos is moved to position.
+   */
+  public void submit(final SourceTrack ts, final List<Event> events, final long position) {
+    final Batch batch = new Batch(ts, events, position);
+    if (ts.pending.get() == 0) {
+      // nothing in flight: what was read before this batch is durable
+      ts.deliveredPos = ts.lastPos;
+    }
+    ts.pending.incrementAndGet();
+    if (!queue.offer(batch)) {
+      final long start = System.currentTimeMillis();
+      Uninterruptibles.putUninterruptibly(queue, batch);
+      counter.blocked(System.currentTimeMillis() - start);
+    }
+    counter.submitted(queue.size());
+  }
+
+  /**
+   * Wait until the batches of ts are delivered (or the pipeline is stopped).
+   */
+  public void await(final SourceTrack ts) {
+    while ((ts.pending.get() > 0) && thread.isAlive()) {
+      Uninterruptibles.sleepUninterruptibly(10, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @Override
+  public void run() {
+    while (running || !queue.isEmpty()) {
+      Batch batch;
+      try {
+        batch = queue.poll(EventPipeline.POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+      }
+      catch (final InterruptedException e) {
+        break;
+      }
+      if ((batch != null) && !deliver(batch)) {
+        break;
+      }
+    }
+  }
+
+  // false if stopped before the batch was accepted: the queued batches are dropped too, so no later
+  // position can become durable
+  private boolean deliver(final Batch batch) {
+    final long start = System.nanoTime();
+    while (!receiver.process(batch.events)) {
+      counter.retried();
+      if (!running) {
+        EventPipeline.logger.warn("Dropping {} queued batch(es) on stop", queue.size() + 1);
+        return false;
+      }
+    }
+    batch.ts.deliveredPos = batch.position;
+    batch.ts.pending.decrementAndGet();
+    counter.delivered(queue.size(), System.nanoTime() - start);
+    listener.delivered(batch.ts, batch.position);
+    return true;
+  }
+
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 1999-2021 Enrico Croce - AGPL >= 3.0
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package net.eiroca.sysadm.flume.util.tracker;
+
+import org.apache.flume.instrumentation.MonitoredCounterGroup;
+import net.eiroca.sysadm.flume.core.util.LatencyHistogram;
+
+/**
+ * Channel pressure seen by the {@link EventPipeline} of a tracker: queue fill, time the readers
+ * spent waiting for room in the queue (ms) and delivery retries/latency (microseconds).
+ */
+public class HandoffCounter extends MonitoredCounterGroup implements HandoffCounterMBean {
+
+  private static final String QUEUE_SIZE = "queue_size";
+  private static final String QUEUE_CAPACITY = "queue_capacity";
+  private static final String QUEUE_FULL = "queue_full_count";
+  private static final String READER_BLOCKED = "reader_blocked_ms";
+  private static final String BATCH_SUBMITTED = "batch_submitted_count";
+  private static final String BATCH_DELIVERED = "batch_delivered_count";
+  private static final String DELIVERY_RETRY = "delivery_retry_count";
+
+  private static final String[] ATTRIBUTES = {
+      HandoffCounter.QUEUE_SIZE, HandoffCounter.QUEUE_CAPACITY, HandoffCounter.QUEUE_FULL, HandoffCounter.READER_BLOCKED, HandoffCounter.BATCH_SUBMITTED, HandoffCounter.BATCH_DELIVERED, HandoffCounter.DELIVERY_RETRY
+  };
+
+  public final LatencyHistogram delivery = new LatencyHistogram();
+  private final int capacity;
+
+  public HandoffCounter(final String name, final int capacity) {
+    super(MonitoredCounterGroup.Type.SOURCE, name, HandoffCounter.ATTRIBUTES);
+    this.capacity = capacity;
+  }
+
+  @Override
+  public void start() {
+    super.start();
+    // start() resets all the counters
+    set(HandoffCounter.QUEUE_CAPACITY, capacity);
+  }
+
+  public void submitted(final int queueSize) {
+    increment(HandoffCounter.BATCH_SUBMITTED);
+    set(HandoffCounter.QUEUE_SIZE, queueSize);
+  }
+
+  public void blocked(final long elapsed) {
+    increment(HandoffCounter.QUEUE_FULL);
+    addAndGet(HandoffCounter.READER_BLOCKED, elapsed);
+  }
+
+  public void delivered(final int queueSize, final long nanos) {
+    increment(HandoffCounter.BATCH_DELIVERED);
+    set(HandoffCounter.QUEUE_SIZE, queueSize);
+    delivery.recordNanos(nanos);
+  }
+
+  public void retried() {
+    increment(HandoffCounter.DELIVERY_RETRY);
+  }
+
+  @Override
+  public long getQueueSize() {
+    return get(HandoffCounter.QUEUE_SIZE);
+  }
+
+  @Override
+  public long getQueueCapacity() {
+    return get(HandoffCounter.QUEUE_CAPACITY);
+  }
+
+  @Override
+  public long getQueueFullCount() {
+    return get(HandoffCounter.QUEUE_FULL);
+  }
+
+  @Override
+  public long getReaderBlockedTime() {
+    return get(HandoffCounter.READER_BLOCKED);
+  }
+
+  @Override
+  public long getBatchSubmittedCount() {
+    return get(HandoffCounter.BATCH_SUBMITTED);
+  }
+
+  @Override
+  public long getBatchDeliveredCount() {
+    return get(HandoffCounter.BATCH_DELIVERED);
+  }
+
+  @Override
+  public long getDeliveryRetryCount() {
+    return get(HandoffCounter.DELIVERY_RETRY);
+  }
+
+  @Override
+  public long getDeliveryLatencyP50() {
+    return delivery.getPercentile(50);
+  }
+
+  @Override
+  public long getDeliveryLatencyP99() {
+    return delivery.getPercentile(99);
+  }
+
+  @Override
+  public long getDeliveryLatencyMax() {
+    return delivery.getMax();
+  }
+
+}
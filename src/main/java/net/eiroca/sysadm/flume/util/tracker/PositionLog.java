@@ -0,0 +1,317 @@
+/**
+ * Copyright (C) 1999-2021 Enrico Croce - AGPL >= 3.0
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package net.eiroca.sysadm.flume.util.tracker;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import net.eiroca.library.system.Logs;
+
+/**
+ * Append-only checkpoint log of the tracked source positions.
+ * <p>
+ * </p>
+ * Every record is framed as [length][payload][crc32], a torn or corrupted tail (crash while
+ * appending) is dropped on load. Only positions that differ from the last written one are
+ * appended, the log is rewritten with the live entries (temp file, fsync and atomic rename) when it
+ * grows past twice the live entries. syncInterval is the fsync policy: 0 every append, &gt;0 at most
+ * once every syncInterval ms, &lt;0 only on compaction and close.
+ */
+public class PositionLog implements Closeable {
+
+  transient private static final Logger logger = Logs.getLogger();
+
+  private static final int MAGIC = 0x45465031; // EFP1
+  private static final byte PUT = 1;
+  private static final byte REMOVE = 2;
+  private static final int MAX_RECORD = 64 * 1024;
+  private static final int MIN_COMPACT = 1024;
+  private static final String EMPTY = "";
+
+  public static class Entry {
+
+    public final String source;
+    public final String id;
+    public final long position;
+    public final long lastCheck;
+
+    Entry(final String source, final String id, final long position, final long lastCheck) {
+      this.source = source;
+      this.id = id;
+      this.position = position;
+      this.lastCheck = lastCheck;
+    }
+
+  }
+
+  private final File file;
+  private final long syncInterval;
+
+  private final Map<String, Entry> live = new LinkedHashMap<>();
+  private FileChannel channel;
+  private long records;
+  private boolean dirty;
+  private long lastSync;
+
+  private final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+  private final DataOutputStream out = new DataOutputStream(record);
+  private final CRC32 crc = new CRC32();
+
+  public PositionLog(final File file, final long syncInterval) {
+    this.file = file;
+    this.syncInterval = syncInterval;
+  }
+
+  /**
+   * Replay the log and open it for appending.
+   *
+   * @return the live entries, empty if the log doesn't exist yet
+   */
+  public synchronized Collection<Entry> open() throws IOException {
+    live.clear();
+    records = 0;
+    long valid = 0;
+    if (file.exists()) {
+      valid = replay();
+    }
+    if (valid == 0) {
+      // missing, empty or invalid header -> start a fresh log
+      writeSnapshot();
+    }
+    else {
+      channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+      if (channel.size() > valid) {
+        PositionLog.logger.warn(String.format("Truncating %s at %d, %d bytes dropped", file, valid, channel.size() - valid));
+        channel.truncate(valid);
+      }
+      channel.position(valid);
+    }
+    return live.values();
+  }
+
+  // Returns the offset after the last valid record, 0 if the header is missing
+  private long replay() throws IOException {
+    long valid = 0;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != PositionLog.MAGIC) {
+        PositionLog.logger.warn("Invalid checkpoint log {}", file);
+        return 0;
+      }
+      valid = 4;
+      byte[] buf = new byte[256];
+      while (true) {
+        final int len = in.readInt();
+        if ((len <= 0) || (len > PositionLog.MAX_RECORD)) {
+          PositionLog.logger.warn(String.format("Invalid record length %d in %s at %d", len, file, valid));
+          break;
+        }
+        if (buf.length < len) {
+          buf = new byte[len];
+        }
+        in.readFully(buf, 0, len);
+        final int check = in.readInt();
+        crc.reset();
+        crc.update(buf, 0, len);
+        if ((int)crc.getValue() != check) {
+          PositionLog.logger.warn("Invalid record checksum in {} at {}", file, valid);
+          break;
+        }
+        apply(new DataInputStream(new ByteArrayInputStream(buf, 0, len)));
+        records++;
+        valid += 8 + len;
+      }
+    }
+    catch (final EOFException e) {
+      // end of the log (possibly a torn record)
+    }
+    return valid;
+  }
+
+  private void apply(final DataInputStream in) throws IOException {
+    final byte op = in.readByte();
+    final String source = in.readUTF();
+    if (op == PositionLog.PUT) {
+      final String id = in.readUTF();
+      live.put(source, new Entry(source, id.isEmpty() ? null : id, in.readLong(), in.readLong()));
+    }
+    else {
+      live.remove(source);
+    }
+  }
+
+  /**
+   * Record the position of a source, nothing is written if it is the same already recorded.
+   */
+  public synchronized void put(final String source, final String id, final long position, final long lastCheck) throws IOException {
+    final Entry old = live.get(source);
+    if ((old != null) && (old.position == position) && (old.lastCheck == lastCheck) && ((id != null) ? id.equals(old.id) : (old.id == null))) { return; }
+    final Entry entry = new Entry(source, id, position, lastCheck);
+    live.put(source, entry);
+    append(entry);
+  }
+
+  public synchronized void remove(final String source) throws IOException {
+    if (live.remove(source) == null) { return; }
+    record.reset();
+    out.writeByte(PositionLog.REMOVE);
+    out.writeUTF(source);
+    write();
+  }
+
+  private void append(final Entry entry) throws IOException {
+    record.reset();
+    PositionLog.encode(out, entry);
+    write();
+  }
+
+  private static void encode(final DataOutputStream out, final Entry entry) throws IOException {
+    out.writeByte(PositionLog.PUT);
+    out.writeUTF(entry.source);
+    out.writeUTF((entry.id != null) ? entry.id : PositionLog.EMPTY);
+    out.writeLong(entry.position);
+    out.writeLong(entry.lastCheck);
+  }
+
+  private void write() throws IOException {
+    if (channel == null) { throw new IOException("Checkpoint log " + file + " is not open"); }
+    final ByteBuffer buf = PositionLog.frame(record, crc);
+    while (buf.hasRemaining()) {
+      channel.write(buf);
+    }
+    records++;
+    dirty = true;
+    if (syncInterval == 0) {
+      sync(true);
+    }
+    else if (syncInterval > 0) {
+      sync(false);
+    }
+    if (records > ((2 * live.size()) + PositionLog.MIN_COMPACT)) {
+      compact();
+    }
+  }
+
+  private static ByteBuffer frame(final ByteArrayOutputStream record, final CRC32 crc) {
+    final byte[] payload = record.toByteArray();
+    crc.reset();
+    crc.update(payload, 0, payload.length);
+    final ByteBuffer buf = ByteBuffer.allocate(payload.length + 8);
+    buf.putInt(payload.length).put(payload).putInt((int)crc.getValue());
+    buf.flip();
+    return buf;
+  }
+
+  /**
+   * fsync the pending records, if force is false only when syncInterval is elapsed.
+   */
+  public synchronized void sync(final boolean force) throws IOException {
+    if (!dirty || (channel == null)) { return; }
+    final long now = System.currentTimeMillis();
+    if (force || ((syncInterval >= 0) && ((now - lastSync) >= syncInterval))) {
+      channel.force(false);
+      dirty = false;
+      lastSync = now;
+    }
+  }
+
+  /**
+   * Rewrite the log with the live entries only.
+   */
+  public synchronized void compact() throws IOException {
+    PositionLog.logger.debug("Compacting {}: {} records", file, records);
+    writeSnapshot();
+  }
+
+  private void writeSnapshot() throws IOException {
+    final ByteArrayOutputStream data = new ByteArrayOutputStream(64 + (live.size() * 96));
+    final DataOutputStream snapshot = new DataOutputStream(data);
+    snapshot.writeInt(PositionLog.MAGIC);
+    for (final Entry entry : live.values()) {
+      record.reset();
+      PositionLog.encode(out, entry);
+      final ByteBuffer buf = PositionLog.frame(record, crc);
+      snapshot.write(buf.array(), 0, buf.limit());
+    }
+    if (channel != null) {
+      channel.close();
+      channel = null;
+    }
+    PositionLog.writeAtomic(file, data.toByteArray());
+    channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+    channel.position(channel.size());
+    records = live.size();
+    dirty = false;
+    lastSync = System.currentTimeMillis();
+  }
+
+  /**
+   * Write data to a temp file, fsync it and rename it over target (atomically where the file system
+   * allows it).
+   */
+  public static void writeAtomic(final File target, final byte[] data) throws IOException {
+    final Path path = target.toPath().toAbsolutePath();
+    final Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      final ByteBuffer buf = ByteBuffer.wrap(data);
+      while (buf.hasRemaining()) {
+        ch.write(buf);
+      }
+      ch.force(true);
+    }
+    try {
+      Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+    catch (final AtomicMoveNotSupportedException e) {
+      Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+    // persist the rename, not supported on every platform
+    try (FileChannel dir = FileChannel.open(path.getParent(), StandardOpenOption.READ)) {
+      dir.force(true);
+    }
+    catch (final IOException e) {
+      PositionLog.logger.trace("Unable to sync {}", path.getParent(), e);
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (channel != null) {
+      sync(true);
+      channel.close();
+      channel = null;
+    }
+  }
+
+}
@@ -16,6 +16,7 @@
  **/
 package net.eiroca.sysadm.flume.util.tracker;
 
+import java.util.concurrent.atomic.AtomicInteger;
 import net.eiroca.ext.library.gson.GsonUtil;
 import net.eiroca.sysadm.flume.api.ext.ITrackedSource;
 
@@ -37,6 +38,10 @@ public class SourceTrack {
 
   int rotations;
 
+  // batches queued in the EventPipeline and position of the last one delivered
+  final transient AtomicInteger pending = new AtomicInteger();
+  transient volatile long deliveredPos;
+
   public SourceTrack(final String id, final String source) {
     this.id = id;
     this.source = source;
@@ -65,6 +70,13 @@ public class SourceTrack {
     lastPos = pos;
   }
 
+  /**
+   * @return the position safe to persist: lastPos unless some batch read before it is still queued.
+   */
+  public long durablePos() {
+    return (pending.get() > 0) ? deliveredPos : lastPos;
+  }
+
   public void rotate() {
     previousEvents = events;
     previousPos = previousPos - lastPos;
@@ -19,7 +19,6 @@ package net.eiroca.sysadm.flume.util.tracker;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -29,6 +28,11 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.apache.flume.Event;
 import org.apache.flume.PollableSource.Status;
 import org.apache.flume.lifecycle.LifecycleAware;
@@ -38,6 +42,8 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.gson.Gson;
 import com.google.gson.stream.JsonReader;
 import net.eiroca.library.core.Helper;
@@ -75,6 +81,14 @@ public class TrackerManager extends ConfigurableObject implements LifecycleAware
 
   private final Map<String, SourceTrack> trackedSources = Maps.newHashMap();
 
+  // Reader pool (reader-threads > 1), the event processor must accept concurrent batches
+  private ExecutorService readers;
+
+  // checkpoint-log store, null when positions are kept in the JSON file only
+  private PositionLog positionLog;
+  // queue between readers and channel (pipeline-capacity > 0)
+  private EventPipeline pipeline;
+
   public TrackerManager() {
     super();
     status = LifecycleState.IDLE;
@@ -116,6 +130,17 @@ public class TrackerManager extends ConfigurableObject implements LifecycleAware
   @Override
   public void stop() {
     status = LifecycleState.STOP;
+    if (readers != null) {
+      readers.shutdown();
+      readers = null;
+    }
+    if (pipeline != null) {
+      pipeline.stop();
+      pipeline = null;
+    }
+    for (final IWatcher watcher : watchers) {
+      watcher.close();
+    }
     try {
       writePosition(true);
       for (final SourceTrack source : trackedSources.values()) {
@@ -125,6 +150,10 @@ public class TrackerManager extends ConfigurableObject implements LifecycleAware
         }
       }
       trackedSources.clear();
+      if (positionLog != null) {
+        positionLog.close();
+        positionLog = null;
+      }
     }
     catch (final IOException e) {
       TrackerSource.logger.info("Failed: {}", e.getMessage(), e);
@@ -181,9 +210,21 @@ public class TrackerManager extends ConfigurableObject implements LifecycleAware
         newWatchers.add(watcher);
       }
     }
+    for (final IWatcher watcher : watchers) {
+      watcher.close();
+    }
     watchers = newWatchers;
-    TrackerManager.logger.info("Reading status file: {}", config.positionFilePath);
-    loadPositionFile(config.positionFilePath);
+    if (positionLog != null) {
+      positionLog.close();
+      positionLog = null;
+    }
+    if (config.checkpointLog) {
+      openPositionLog(new File(config.positionFilePath + ".log"));
+    }
+    else {
+      TrackerManager.logger.info("Reading status file: {}", config.positionFilePath);
+      loadPositionFile(config.positionFilePath);
+    }
     updateSources(config.skipToEnd);
   }
 
@@ -192,38 +233,27 @@ public class TrackerManager extends ConfigurableObject implements LifecycleAware
   public Status flushEvents(final IEventProcessor receiver, final int batchSize) throws IOException {
     TrackerManager.logger.info("Check for new events.");
     boolean hasEvents = false;
+    if ((config.pipelineCapacity > 0) && (pipeline == null)) {
+      pipeline = new EventPipeline(getName(), receiver, this::delivered, config.pipelineCapacity);
+      pipeline.start();
+    }
     updateSources(false);
     final long now = System.currentTimeMillis();
+    final List<SourceTrack> changed = new ArrayList<>();
     for (final SourceTrack ts : trackedSources.values()) {
-      writePosition(false);
       if (ts.changed) {
-        final boolean flush = (ts.lastCheck > 0) && ((now - ts.lastCheck) > getConfig().inactiveFlush);
-        TrackerSource.logger.debug("{}: {} ", flush ? "Flushing" : "Reading", ts.source);
-        final ITrackedSource source = ts.tracker;
-        if (source != null) {
-          try {
-            final boolean fileChanged = source.isChanged(ts.id, ts.lastPos);
-            if (fileChanged) {
-              ts.rotate();
-              TrackerManager.logger.info(String.format("File changed: %s [%s]", ts.source, ts.id));
-              if (source.isOpen()) {
-                source.close();
-              }
-            }
-            if (!source.isOpen()) {
-              source.open(ts.lastPos);
-              ts.id = source.getID();
-            }
-            if (processEvents(ts, receiver, batchSize, false, flush)) {
-              hasEvents = true;
-            }
-          }
-          catch (final IOException e) {
-            TrackerSource.logger.error("Unable to track {}", ts.source, e);
-          }
-        }
-        else {
-          TrackerManager.logger.info("Tracker for source {} is missing", ts.source);
+        changed.add(ts);
+      }
+    }
+    if ((config.readerThreads > 1) && (changed.size() > 1)) {
+      hasEvents = readParallel(changed, receiver, batchSize, now);
+      writePosition(false);
+    }
+    else {
+      for (final SourceTrack ts : changed) {
+        writePosition(false);
+        if (readSource(ts, receiver, batchSize, now, true)) {
+          hasEvents = true;
         }
       }
     }
@@ -238,32 +268,121 @@ public class TrackerManager extends ConfigurableObject implements LifecycleAware
     return status;
   }
 
-  private void commit(final SourceTrack ts) throws IOException {
+  /**
+   * Read the changed sources on the reader pool, each source is read by a single worker. Position
+   * file is written by the caller once all the workers are done.
+   */
+  private boolean readParallel(final List<SourceTrack> sources, final IEventProcessor receiver, final int batchSize, final long now) {
+    synchronized (this) {
+      if (readers == null) {
+        readers = Executors.newFixedThreadPool(config.readerThreads, new ThreadFactoryBuilder().setNameFormat(getName() + "-reader-%d").setDaemon(true).build());
+      }
+    }
+    final List<Future<Boolean>> results = new ArrayList<>(sources.size());
+    for (final SourceTrack ts : sources) {
+      results.add(readers.submit(() -> readSource(ts, receiver, batchSize, now, false)));
+    }
+    boolean hasEvents = false;
+    for (final Future<Boolean> result : results) {
+      try {
+        if (Uninterruptibles.getUninterruptibly(result)) {
+          hasEvents = true;
+        }
+      }
+      catch (final ExecutionException e) {
+        TrackerSource.logger.error("Unable to track source", e.getCause());
+      }
+    }
+    return hasEvents;
+  }
+
+  private boolean readSource(final SourceTrack ts, final IEventProcessor receiver, final int batchSize, final long now, final boolean writePos) {
+    boolean hasEvents = false;
+    final boolean flush = (ts.lastCheck > 0) && ((now - ts.lastCheck) > getConfig().inactiveFlush);
+    TrackerSource.logger.debug("{}: {} ", flush ? "Flushing" : "Reading", ts.source);
+    final ITrackedSource source = ts.tracker;
+    if (source != null) {
+      try {
+        final boolean fileChanged = source.isChanged(ts.id, ts.lastPos);
+        if (fileChanged) {
+          if (pipeline != null) {
+            // positions of the old file must not be persisted after the rotation
+            pipeline.await(ts);
+          }
+          ts.rotate();
+          TrackerManager.logger.info(String.format("File changed: %s [%s]", ts.source, ts.id));
+          if (source.isOpen()) {
+            source.close();
+          }
+        }
+        if (!source.isOpen()) {
+          source.open(ts.lastPos);
+          ts.id = source.getID();
+        }
+        hasEvents = processEvents(ts, receiver, batchSize, false, flush, config.maxBatches, writePos);
+      }
+      catch (final IOException e) {
+        TrackerSource.logger.error("Unable to track {}", ts.source, e);
+      }
+    }
+    else {
+      TrackerManager.logger.info("Tracker for source {} is missing", ts.source);
+    }
+    return hasEvents;
+  }
+
+  private void commit(final SourceTrack ts, final boolean writePos) throws IOException {
     ts.tracker.commit();
     ts.idle = false;
     ts.checkPoint(System.currentTimeMillis(), ts.tracker.getCommittedPosition());
-    writePosition(false);
+    checkpoint(ts);
+    if (writePos) {
+      writePosition(false);
+    }
   }
 
   private boolean processEvents(final SourceTrack ts, final IEventProcessor receiver, final int batchSize, final boolean backoffWithoutNL, final boolean flush) throws IOException {
+    return processEvents(ts, receiver, batchSize, backoffWithoutNL, flush, 0, true);
+  }
+
+  /**
+   * Read and hand off batches of events until the source is drained, or maxBatches (if > 0) are
+   * sent.
+   */
+  private boolean processEvents(final SourceTrack ts, final IEventProcessor receiver, final int batchSize, final boolean backoffWithoutNL, final boolean flush, final int maxBatches, final boolean writePos) throws IOException {
     Preconditions.checkNotNull(ts, "TrackedSource must be not NULL");
     Preconditions.checkNotNull(ts.tracker, "Source must be not NULL");
     Preconditions.checkArgument(ts.tracker.isOpen(), "Source must be open");
     boolean hasEvents = false;
+    int batches = 0;
     while (true) {
       final List<Event> events = ts.tracker.readEvents(batchSize, backoffWithoutNL, flush);
       if (events.isEmpty()) {
-        commit(ts);
+        commit(ts, writePos);
         break;
       }
       hasEvents = true;
       ts.addEvents(events.size());
       TrackerSource.logger.info(String.format("Tracking Events: %6d Position: %d source: %s", events.size(), ts.lastPos, ts.me()));
-      if (receiver.process(events)) {
-        commit(ts);
+      final boolean processed;
+      if (pipeline != null) {
+        ts.tracker.commit();
+        pipeline.submit(ts, events, ts.tracker.getCommittedPosition());
+        processed = true;
+      }
+      else {
+        processed = receiver.process(events);
+      }
+      if (processed) {
+        commit(ts, writePos);
+        batches++;
         if (events.size() < batchSize) {
           break;
         }
+        if ((maxBatches > 0) && (batches >= maxBatches)) {
+          TrackerManager.logger.debug("{} reached max-batches, resuming next round", ts.source);
+          break;
+        }
       }
       else {
         ts.tracker.rollback();
@@ -304,28 +423,86 @@ public class TrackerManager extends ConfigurableObject implements LifecycleAware
     for (final String id : toDelete) {
       TrackerManager.logger.info("Removing Source {} ", id);
       trackedSources.remove(id);
+      if (positionLog != null) {
+        try {
+          positionLog.remove(id);
+        }
+        catch (final IOException e) {
+          TrackerSource.logger.error("Failed writing checkpoint log", e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Open the checkpoint log, the first time the positions are imported from the JSON position file.
+   */
+  private void openPositionLog(final File file) throws IOException {
+    final boolean exists = file.exists();
+    positionLog = new PositionLog(file, config.checkpointSync);
+    TrackerManager.logger.info("Reading checkpoint log: {}", file);
+    for (final PositionLog.Entry e : positionLog.open()) {
+      if (!trackedSources.containsKey(e.source)) {
+        final SourceTrack ts = new SourceTrack(e.id, e.source);
+        ts.checkPoint(e.lastCheck, e.position);
+        trackedSources.put(ts.source, ts);
+      }
+    }
+    if (!exists) {
+      TrackerManager.logger.info("Importing status file: {}", config.positionFilePath);
+      loadPositionFile(config.positionFilePath);
+      for (final SourceTrack ts : trackedSources.values()) {
+        positionLog.put(ts.source, ts.id, ts.lastPos, ts.lastCheck);
+      }
+      positionLog.sync(true);
+    }
+  }
+
+  // Append the committed position of the source to the checkpoint log (if enabled)
+  private void checkpoint(final SourceTrack ts) {
+    if (positionLog != null) {
+      try {
+        positionLog.put(ts.source, ts.id, ts.durablePos(), ts.lastCheck);
+      }
+      catch (final IOException e) {
+        TrackerSource.logger.error("Failed writing checkpoint log", e);
+      }
     }
   }
 
+  // Called by the pipeline thread once a batch is in the channel
+  private void delivered(final SourceTrack ts, final long position) {
+    checkpoint(ts);
+  }
+
   private long lastWrite = 0;
 
+  /**
+   * Write the JSON position file (the export, when checkpoint-log is on) every writePosInterval ms,
+   * through a temp file renamed over the old one.
+   */
   public synchronized void writePosition(final boolean forceWrite) {
     final long now = System.currentTimeMillis();
+    if (positionLog != null) {
+      try {
+        positionLog.sync(forceWrite);
+      }
+      catch (final IOException e) {
+        TrackerSource.logger.error("Failed syncing checkpoint log", e);
+      }
+    }
     if (forceWrite || ((now - lastWrite) > config.writePosInterval)) {
       TrackerSource.logger.debug("Writing positionFile");
       final File file = new File(getConfig().positionFilePath.toString());
-      FileWriter writer = null;
       try {
-        writer = new FileWriter(file);
         final String json = toPosInfoJson();
-        writer.write(json);
+        PositionLog.writeAtomic(file, json.getBytes());
       }
       catch (final Throwable t) {
         TrackerSource.logger.error("Failed writing positionFile", t);
       }
       finally {
         lastWrite = now;
-        Helper.close(writer);
       }
     }
   }
@@ -342,7 +519,7 @@ public class TrackerManager extends ConfigurableObject implements LifecycleAware
       final Map<String, Object> filePos = new HashMap<>();
       filePos.put(TrackerManager.JSON_ID, ts.id);
       filePos.put(TrackerManager.JSON_SOURCE, ts.source);
-      filePos.put(TrackerManager.JSON_POSITION, ts.lastPos);
+      filePos.put(TrackerManager.JSON_POSITION, ts.durablePos());
       filePos.put(TrackerManager.JSON_LAST_CHECK, TrackerManager.SDF.format(new Date(ts.lastCheck)));
       if (ts.previousCheck != 0) {
         filePos.put(TrackerManager.JSON_PREV_CHECK, TrackerManager.SDF.format(new Date(ts.previousCheck)));
@@ -447,7 +624,9 @@ public class TrackerManager extends ConfigurableObject implements LifecycleAware
     for (final IWatcher watcher : watchers) {
       final String sourceGroup = watcher.getName();
       TrackerManager.logger.debug("Updating source: {}", sourceGroup);
-      for (final IWatcherResult r : watcher.getMatchingFiles()) {
+      final List<IWatcherResult> matched = watcher.getMatchingFiles();
+      final Set<String> touched = watcher.getChangedSources();
+      for (final IWatcherResult r : matched) {
         TrackerManager.logger.debug("Checking file: " + r);
         final String id = r.getID();
         final String path = r.getSource();
@@ -470,7 +649,13 @@ public class TrackerManager extends ConfigurableObject implements LifecycleAware
         }
         boolean changed = false;
         changed = changed || ((config.maxInterval > 0) && ((now - ts.lastCheck) > config.maxInterval));
-        changed = changed || ((r.getSize() > 0) && ((ts.lastCheck < r.getUpdateDate()) || (ts.lastPos != r.getSize())));
+        if ((touched != null) && !touched.contains(path)) {
+          // not touched since the last check, only data left behind has to be read
+          changed = changed || ((r.getSize() > 0) && (ts.lastPos != r.getSize()));
+        }
+        else {
+          changed = changed || ((r.getSize() > 0) && ((ts.lastCheck < r.getUpdateDate()) || (ts.lastPos != r.getSize())));
+        }
         if (changed) {
           ts.idle = false;
         }
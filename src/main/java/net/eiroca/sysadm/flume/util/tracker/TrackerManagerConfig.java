@@ -44,6 +44,10 @@ public class TrackerManagerConfig {
   /** Interval time (ms) to write the last position of each file on the position file. */
   final transient private IntegerParameter pWritePosInternval = new IntegerParameter(params, "update-registry-interval", 10000);
   final transient private PathParameter pPositionFilePath = new PathParameter(params, "positionFile", "~/.flume/tracking_position.json");
+  /** Keep positions in a binary checkpoint log (positionFile + ".log"), positionFile is an export */
+  final transient private BooleanParameter pCheckpointLog = new BooleanParameter(params, "checkpoint-log", false);
+  /** fsync of the checkpoint log (ms): 0 every write, -1 only on compaction and stop */
+  final transient private IntegerParameter pCheckpointSync = new IntegerParameter(params, "checkpoint-sync-interval", 1000);
 
   /** Time (ms) for idle files (flush incomplete events, close file, delete registry entry) */
   final transient private IntegerParameter pInactiveFlush = new IntegerParameter(params, "inactive-flush", 30 * 1000);
@@ -76,6 +80,13 @@ public class TrackerManagerConfig {
 
   final transient private BooleanParameter pCanBakeOff = new BooleanParameter(params, "bakeoff", true);
 
+  /** Threads reading sources in parallel (1 = all sources read by the polling thread) */
+  final transient private IntegerParameter pReaderThreads = new IntegerParameter(params, "reader-threads", 1);
+  /** Max batches read from a source in a poll round, 0 = until the source is drained */
+  final transient private IntegerParameter pMaxBatches = new IntegerParameter(params, "max-batches", 0);
+  /** Batches queued between readers and channel (0 = readers hand off to the channel directly) */
+  final transient private IntegerParameter pPipelineCapacity = new IntegerParameter(params, "pipeline-capacity", 0);
+
   /** Watchers */
   public static final String WATCHER_PREFIX = "watcher";
   final transient private ListParameter pWatchers = new ListParameter(params, TrackerManagerConfig.WATCHER_PREFIX + "s");
@@ -89,6 +100,8 @@ public class TrackerManagerConfig {
 
   public String positionFilePath;
   public int writePosInterval;
+  public boolean checkpointLog;
+  public int checkpointSync;
 
   public long inactiveFlush;
   public long inactiveClose;
@@ -107,6 +120,10 @@ public class TrackerManagerConfig {
   public boolean skipToEnd;
   public boolean canBakeOff;
 
+  public int readerThreads;
+  public int maxBatches;
+  public int pipelineCapacity;
+
   public boolean collectorMode;
   public String hostname;
 
@@ -121,6 +138,8 @@ public class TrackerManagerConfig {
     offsetHeaderName = pSetOffsetHeader.get() ? pOffsetHeaderName.get() : null;
     ingestTimeHeaderName = pSetIngestHeader.get() ? pIngestHeaderName.get() : null;
     writePosInterval = pWritePosInternval.get();
+    checkpointLog = pCheckpointLog.get();
+    checkpointSync = pCheckpointSync.get();
     inactiveFlush = pInactiveFlush.get();
     inactiveClose = pInactiveClose.get();
     inactiveDelete = pInactiveDelete.get();
@@ -129,6 +148,9 @@ public class TrackerManagerConfig {
     maxAge = pMaxAge.get();
     shareMode = pShareMode.get();
     canBakeOff = pCanBakeOff.get();
+    readerThreads = pReaderThreads.get();
+    maxBatches = pMaxBatches.get();
+    pipelineCapacity = pPipelineCapacity.get();
     collectorMode = pCollectorMode.get();
     hostname = Helper.getHostName();
     principalConfigs.clear();
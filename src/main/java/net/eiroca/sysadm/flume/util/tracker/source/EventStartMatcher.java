@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 1999-2021 Enrico Croce - AGPL >= 3.0
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package net.eiroca.sysadm.flume.util.tracker.source;
+
+import java.nio.charset.Charset;
+import com.google.common.base.Preconditions;
+
+/**
+ * Byte level start of event check, applied to the first bytes of a line without decoding it (the
+ * source encoding must be ASCII compatible for class and timestamp). Specs:
+ * <ul>
+ * <li>prefix:TEXT - the line starts with TEXT</li>
+ * <li>class:RANGES - the first byte is in RANGES (e.g. 0-9A-Z), ^ in front negates the class (e.g.
+ * class:^ \t, the line doesn't start with a blank)</li>
+ * <li>timestamp:SHAPE - the line starts with SHAPE, date pattern letters (y M d H h k K m s S D)
+ * match a digit and any other char matches itself (e.g. timestamp:yyyy-MM-dd HH:mm:ss)</li>
+ * </ul>
+ */
+public class EventStartMatcher {
+
+  private static final String PREFIX = "prefix:";
+  private static final String CLASS = "class:";
+  private static final String TIMESTAMP = "timestamp:";
+  private static final String DIGIT_LETTERS = "yMdHhkKmsSD";
+
+  // prefix/timestamp: expected bytes, digit[i] -> any digit at i
+  private final byte[] expected;
+  private final boolean[] digit;
+  // class: accepted first bytes
+  private final boolean[] accepted;
+
+  /**
+   * @return the matcher for spec, null if spec is empty.
+   */
+  public static EventStartMatcher build(final String spec, final String encoding) {
+    if ((spec == null) || spec.isEmpty()) { return null; }
+    if (spec.startsWith(EventStartMatcher.PREFIX)) {
+      final String text = spec.substring(EventStartMatcher.PREFIX.length());
+      Preconditions.checkArgument(!text.isEmpty(), "Empty start-match prefix");
+      final byte[] expected = (encoding != null) ? text.getBytes(Charset.forName(encoding)) : text.getBytes();
+      return new EventStartMatcher(expected, new boolean[expected.length], null);
+    }
+    if (spec.startsWith(EventStartMatcher.CLASS)) {
+      return new EventStartMatcher(null, null, EventStartMatcher.parseClass(spec.substring(EventStartMatcher.CLASS.length())));
+    }
+    if (spec.startsWith(EventStartMatcher.TIMESTAMP)) {
+      final String shape = spec.substring(EventStartMatcher.TIMESTAMP.length());
+      Preconditions.checkArgument(!shape.isEmpty(), "Empty start-match timestamp");
+      final byte[] expected = new byte[shape.length()];
+      final boolean[] digit = new boolean[shape.length()];
+      for (int i = 0; i < shape.length(); i++) {
+        final char ch = shape.charAt(i);
+        Preconditions.checkArgument(ch < 128, "Non ASCII char in start-match timestamp: " + shape);
+        digit[i] = EventStartMatcher.DIGIT_LETTERS.indexOf(ch) >= 0;
+        expected[i] = (byte)ch;
+      }
+      return new EventStartMatcher(expected, digit, null);
+    }
+    throw new IllegalArgumentException("Invalid start-match: " + spec);
+  }
+
+  private static boolean[] parseClass(final String ranges) {
+    Preconditions.checkArgument(!ranges.isEmpty(), "Empty start-match class");
+    final boolean negate = (ranges.length() > 1) && (ranges.charAt(0) == '^');
+    final boolean[] result = new boolean[256];
+    int i = negate ? 1 : 0;
+    while (i < ranges.length()) {
+      final char from = ranges.charAt(i);
+      char to = from;
+      if (((i + 2) < ranges.length()) && (ranges.charAt(i + 1) == '-')) {
+        to = ranges.charAt(i + 2);
+        i += 3;
+      }
+      else {
+        i++;
+      }
+      Preconditions.checkArgument((from <= to) && (to < 256), "Invalid start-match class: " + ranges);
+      for (int c = from; c <= to; c++) {
+        result[c] = true;
+      }
+    }
+    if (negate) {
+      for (int c = 0; c < result.length; c++) {
+        result[c] = !result[c];
+      }
+    }
+    return result;
+  }
+
+  private EventStartMatcher(final byte[] expected, final boolean[] digit, final boolean[] accepted) {
+    this.expected = expected;
+    this.digit = digit;
+    this.accepted = accepted;
+  }
+
+  public boolean matches(final LineResult line) {
+    final int len = line.length();
+    if (accepted != null) { return (len > 0) && accepted[line.byteAt(0) & 0xFF]; }
+    if (len < expected.length) { return false; }
+    for (int i = 0; i < expected.length; i++) {
+      final byte b = line.byteAt(i);
+      if (digit[i] ? ((b < '0') || (b > '9')) : (b != expected[i])) { return false; }
+    }
+    return true;
+  }
+
+}
@@ -1,5 +1,4 @@
 /**
- *
  * Copyright (C) 1999-2021 Enrico Croce - AGPL >= 3.0
  *
  * This program is free software: you can redistribute it and/or modify it under the terms of the
@@ -16,14 +15,45 @@
  **/
 package net.eiroca.sysadm.flume.util.tracker.source;
 
+/**
+ * A line read from a tracked source. Subclasses may back it with a window of the source instead of
+ * an array (see {@link TrackedFile}), such a line is valid only until the next line is read.
+ */
 public class LineResult {
 
   final public boolean lineSepInclude;
-  final public byte[] line;
+  final private byte[] line;
 
   public LineResult(final boolean lineSepInclude, final byte[] line) {
     super();
     this.lineSepInclude = lineSepInclude;
     this.line = line;
   }
+
+  protected LineResult(final boolean lineSepInclude) {
+    this(lineSepInclude, null);
+  }
+
+  public int length() {
+    return line.length;
+  }
+
+  public byte byteAt(final int index) {
+    return line[index];
+  }
+
+  public byte[] getLine() {
+    return line;
+  }
+
+  /**
+   * Copy the line in dest at pos.
+   *
+   * @return the position after the line
+   */
+  public int copyTo(final byte[] dest, final int pos) {
+    System.arraycopy(line, 0, dest, pos, line.length);
+    return pos + line.length;
+  }
+
 }
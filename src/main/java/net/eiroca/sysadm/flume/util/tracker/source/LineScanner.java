@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 1999-2021 Enrico Croce - AGPL >= 3.0
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package net.eiroca.sysadm.flume.util.tracker.source;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Word-at-a-time (SWAR) byte search: eight bytes are tested at once with the classic has-zero-byte
+ * bit trick, the tail is tested byte by byte.
+ */
+public final class LineScanner {
+
+  private static final long ONES = 0x0101010101010101L;
+  private static final long HIGHS = 0x8080808080808080L;
+
+  private LineScanner() {
+  }
+
+  /**
+   * @param buffer - must be little endian
+   * @return the index of the first b in buffer[from, to), -1 if none
+   */
+  public static int indexOf(final ByteBuffer buffer, int from, final int to, final byte b) {
+    final long pattern = (b & 0xFFL) * LineScanner.ONES;
+    while ((from + 8) <= to) {
+      final long x = buffer.getLong(from) ^ pattern;
+      final long found = (x - LineScanner.ONES) & ~x & LineScanner.HIGHS;
+      if (found != 0) { return from + (Long.numberOfTrailingZeros(found) >>> 3); }
+      from += 8;
+    }
+    for (; from < to; from++) {
+      if (buffer.get(from) == b) { return from; }
+    }
+    return -1;
+  }
+
+  /**
+   * @param buffer - must be little endian
+   * @return the index of the first byte different from b in buffer[from, to), -1 if none
+   */
+  public static int indexOfNot(final ByteBuffer buffer, int from, final int to, final byte b) {
+    final long pattern = (b & 0xFFL) * LineScanner.ONES;
+    while ((from + 8) <= to) {
+      final long x = buffer.getLong(from) ^ pattern;
+      if (x != 0) { return from + (Long.numberOfTrailingZeros(x) >>> 3); }
+      from += 8;
+    }
+    for (; from < to; from++) {
+      if (buffer.get(from) != b) { return from; }
+    }
+    return -1;
+  }
+
+  public static int indexOf(final byte[] buffer, final int from, final int to, final byte b) {
+    return LineScanner.indexOf(ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN), from, to, b);
+  }
+
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 1999-2021 Enrico Croce - AGPL >= 3.0
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package net.eiroca.sysadm.flume.util.tracker.source;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Sequential read-ahead of a remote source: up to depth reads of the blocks following the consumer
+ * position are kept in flight on a background executor and handed over in order, so the network
+ * latency overlaps with the parsing of the current block. Buffers are recycled. The reader must
+ * accept concurrent positional reads, a single thread at a time may consume the blocks.
+ */
+public class ReadAhead {
+
+  public interface BlockReader {
+
+    /**
+     * Read up to len bytes at pos in buf, may be called concurrently.
+     *
+     * @return the bytes read, &lt;=0 at end of data
+     */
+    int read(long pos, byte[] buf, int len) throws IOException;
+
+  }
+
+  private static final class Block {
+
+    final long pos;
+    final int size;
+    final byte[] data;
+    int len;
+
+    Block(final long pos, final int size, final byte[] data) {
+      this.pos = pos;
+      this.size = size;
+      this.data = data;
+    }
+
+  }
+
+  private static ExecutorService executor;
+
+  private static synchronized ExecutorService getExecutor() {
+    if (ReadAhead.executor == null) {
+      ReadAhead.executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("read-ahead-%d").setDaemon(true).build());
+    }
+    return ReadAhead.executor;
+  }
+
+  private final BlockReader reader;
+  private final int blockSize;
+  private final int depth;
+  private final ArrayDeque<Future<Block>> inflight;
+  private final BlockingQueue<byte[]> free;
+
+  // position of the block the consumer reads next and of the next block to submit
+  private long expected = -1;
+  private long nextPos;
+
+  public ReadAhead(final BlockReader reader, final int blockSize, final int depth) {
+    this.reader = reader;
+    this.blockSize = blockSize;
+    this.depth = depth;
+    inflight = new ArrayDeque<>(depth);
+    free = new ArrayBlockingQueue<>(depth + 1);
+  }
+
+  /**
+   * Read the block at pos into buf, the data up to limit is read ahead.
+   *
+   * @return the bytes read (0 if pos &gt;= limit)
+   */
+  public int read(final long pos, final long limit, final byte[] buf) throws IOException {
+    if (pos != expected) {
+      cancel();
+      expected = pos;
+      nextPos = pos;
+    }
+    fill(limit);
+    final Future<Block> head = inflight.poll();
+    if (head == null) { return 0; }
+    final Block block;
+    try {
+      block = Uninterruptibles.getUninterruptibly(head);
+    }
+    catch (final ExecutionException e) {
+      cancel();
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException) { throw (IOException)cause; }
+      throw new IOException(cause);
+    }
+    final boolean shortRead = block.len < block.size;
+    if (shortRead) {
+      // short read (end of data): the blocks in flight are misaligned
+      cancel();
+    }
+    final int len = Math.max(Math.min(block.len, buf.length), 0);
+    System.arraycopy(block.data, 0, buf, 0, len);
+    free.offer(block.data);
+    expected = block.pos + len;
+    if (shortRead) {
+      // read ahead again right after the data returned
+      nextPos = expected;
+    }
+    fill(limit);
+    return len;
+  }
+
+  private void fill(final long limit) {
+    while ((inflight.size() < depth) && (nextPos < limit)) {
+      byte[] data = free.poll();
+      if (data == null) {
+        data = new byte[blockSize];
+      }
+      final Block block = new Block(nextPos, (int)Math.min(blockSize, limit - nextPos), data);
+      inflight.add(ReadAhead.getExecutor().submit(() -> {
+        block.len = reader.read(block.pos, block.data, block.size);
+        return block;
+      }));
+      nextPos += block.size;
+    }
+  }
+
+  /**
+   * Drop the blocks read ahead. When it returns the reader is no longer used.
+   */
+  public void cancel() {
+    Future<Block> f;
+    // a read in progress can't be stopped, wait for them all
+    while ((f = inflight.poll()) != null) {
+      try {
+        Uninterruptibles.getUninterruptibly(f);
+      }
+      catch (final ExecutionException e) {
+        // dropped
+      }
+    }
+    expected = -1;
+  }
+
+}
@@ -18,7 +18,11 @@ package net.eiroca.sysadm.flume.util.tracker.source;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.StandardOpenOption;
 import net.eiroca.library.system.LibFile;
@@ -26,8 +30,115 @@ import net.eiroca.sysadm.flume.util.tracker.watcher.WatcherConfig;
 
 public class TrackedFile extends TrackedStream {
 
+  /**
+   * A line of the current mapped window, copied only by {@link #copyTo(byte[], int)} into the event
+   * being assembled. The file may be truncated after the line was found: the size is validated before
+   * the copy and access errors are caught, the file is then closed by the next readLine.
+   */
+  private class MappedLine extends LineResult {
+
+    private final ByteBuffer view;
+    private final int start;
+    private final int end;
+
+    MappedLine(final boolean lineSepInclude, final int start, final int end) {
+      super(lineSepInclude);
+      view = windowView;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public int length() {
+      return end - start;
+    }
+
+    @Override
+    public byte byteAt(final int index) {
+      if (!truncated) {
+        try {
+          return view.get(start + index);
+        }
+        catch (final InternalError e) {
+          truncated(e);
+        }
+      }
+      return 0;
+    }
+
+    @Override
+    public byte[] getLine() {
+      final byte[] line = new byte[length()];
+      copyTo(line, 0);
+      return line;
+    }
+
+    @Override
+    public int copyTo(final byte[] dest, final int pos) {
+      if (!truncated && (channelSize() < (windowStart + end))) {
+        truncated(null);
+      }
+      if (truncated) { return pos; }
+      try {
+        view.position(start);
+        view.get(dest, pos, end - start);
+      }
+      catch (final InternalError e) {
+        truncated(e);
+        return pos;
+      }
+      return pos + (end - start);
+    }
+
+  }
+
+  // Unmaps a window now rather than when it is collected: Unsafe.invokeCleaner on Java 9+, the
+  // buffer cleaner on Java 8. When neither is accessible windows are released by the GC
+  private static final Object UNSAFE;
+  private static final Method INVOKE_CLEANER;
+  private static final Method CLEANER;
+  private static final Method CLEAN;
+  static {
+    Object unsafe = null;
+    Method invokeCleaner = null;
+    Method cleaner = null;
+    Method clean = null;
+    try {
+      final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      try {
+        invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+        theUnsafe.setAccessible(true);
+        unsafe = theUnsafe.get(null);
+      }
+      catch (final NoSuchMethodException e) {
+        invokeCleaner = null;
+        cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+        clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+      }
+    }
+    catch (final Exception e) {
+      TrackedSource.logger.debug("Mapped windows will be released by the GC", e);
+      invokeCleaner = null;
+      cleaner = null;
+    }
+    UNSAFE = unsafe;
+    INVOKE_CLEANER = invokeCleaner;
+    CLEANER = cleaner;
+    CLEAN = clean;
+  }
+
   private final File file;
   private transient FileChannel channel;
+  private transient ByteBuffer readBuffer;
+
+  // Memory mapped mode: current window of the file, view is used to copy lines out of it
+  private transient MappedByteBuffer window;
+  private transient ByteBuffer windowView;
+  private transient long windowStart;
+  private transient int windowLen;
+  // A line found the file truncated, it is closed by the next readLine
+  private transient boolean truncated;
 
   public TrackedFile(final File file, final long commitPos, final WatcherConfig config) {
     this.commitPos = commitPos;
@@ -79,7 +190,7 @@ public class TrackedFile extends TrackedStream {
   @Override
   public void seek(final long pos) throws IOException {
     bufferPos = TrackedStream.NEED_READING;
-    oldBuffer = new byte[0];
+    resetCarry();
     final long size = (pos > 0) ? channelSize(true) : 0;
     if (pos <= size) {
       channel.position(pos);
@@ -96,6 +207,8 @@ public class TrackedFile extends TrackedStream {
   public void close() {
     TrackedSource.logger.info(String.format("Closing file: %s ID: %s pos: %d", getSource(), getID(), getCommittedPosition()));
     try {
+      unmap();
+      truncated = false;
       if (channel != null) {
         channel.close();
         channel = null;
@@ -133,17 +246,20 @@ public class TrackedFile extends TrackedStream {
   }
 
   private void readBlock() throws IOException {
-    ByteBuffer buf;
+    final byte[] buf = getReadBuffer();
+    if ((readBuffer == null) || (readBuffer.array() != buf)) {
+      readBuffer = ByteBuffer.wrap(buf);
+    }
     final long filePos = channel.position();
     final long fileSize = channel.size();
     long blockSize = (fileSize - filePos);
-    long blockRead;
-    if (blockSize > config.bufferSize) {
-      blockSize = config.bufferSize;
+    if (blockSize > buf.length) {
+      blockSize = buf.length;
     }
-    buf = ByteBuffer.allocate((int)blockSize);
-    blockRead = channel.read(buf);
-    buffer = buf.array();
+    readBuffer.clear();
+    readBuffer.limit((int)blockSize);
+    final int blockRead = channel.read(readBuffer);
+    bufferLen = Math.max(blockRead, 0);
     bufferPos = 0;
     TrackedSource.logger.trace(String.format("Reading %s %d / %d - %d / %d", getID(), blockRead, blockSize, filePos, fileSize));
   }
@@ -159,7 +275,7 @@ public class TrackedFile extends TrackedStream {
         int invalidBlocks = 0;
         while (needRead) {
           readBlock();
-          bufferPos = checkInvalidBlock(buffer);
+          bufferPos = checkInvalidBlock(buffer, bufferLen);
           final boolean invalidblock = bufferPos < 0;
           dataRead = !invalidblock;
           if (invalidblock && !skipped) {
@@ -201,6 +317,124 @@ public class TrackedFile extends TrackedStream {
     return dataRead;
   }
 
+  /**
+   * In memory mapped mode lines are found scanning the mapped window of the file and returned as
+   * slices of it ({@link MappedLine}), the window is moved forward (and enlarged for lines longer than
+   * it) when needed. Runs of invalid-char at the start of a line are skipped.
+   */
+  @Override
+  public LineResult readLine(final boolean flush) throws IOException {
+    if (!config.memoryMapped) { return super.readLine(flush); }
+    if (truncated) {
+      close();
+    }
+    if (channel == null) { return null; }
+    try {
+      return readMappedLine(flush);
+    }
+    catch (final InternalError e) {
+      // Access to a mapped page no longer backed by the file (truncated meanwhile)
+      TrackedSource.logger.warn("Mapped file changed while reading {}", source, e);
+      close();
+      return null;
+    }
+  }
+
+  private LineResult readMappedLine(final boolean flush) throws IOException {
+    final long size = channelSize();
+    if ((window != null) && (size < (windowStart + windowLen))) {
+      // File truncated, the window is no longer valid
+      unmap();
+    }
+    long pos = markPos;
+    if (pos >= size) { return null; }
+    long scanPos = pos;
+    while (true) {
+      long end = windowStart + windowLen;
+      if ((window == null) || (pos < windowStart) || (scanPos >= end)) {
+        if (scanPos >= size) {
+          if (!flush) { return null; }
+          break;
+        }
+        final long len = Math.min(size - pos, Math.min(Integer.MAX_VALUE, Math.max(config.mapSize, (scanPos - pos) * 2)));
+        map(pos, len);
+        end = windowStart + windowLen;
+        if (scanPos >= end) {
+          // Line longer than the largest window
+          break;
+        }
+      }
+      if (scanPos == pos) {
+        final int valid = LineScanner.indexOfNot(window, (int)(pos - windowStart), windowLen, config.invalidChar);
+        if (valid != (int)(pos - windowStart)) {
+          pos = (valid >= 0) ? windowStart + valid : end;
+          TrackedSource.logger.trace("{} skipped invalid bytes up to {}", source, pos);
+          setMarkPos(pos);
+          scanPos = pos;
+          if (pos >= size) { return null; }
+          continue;
+        }
+      }
+      final int idx = LineScanner.indexOf(window, (int)(scanPos - windowStart), windowLen, config.delimiter);
+      if (idx >= 0) {
+        final int lineStart = (int)(pos - windowStart);
+        int lineEnd = idx;
+        // For windows, check for CR
+        if ((lineEnd > lineStart) && (window.get(lineEnd - 1) == config.trimmed)) {
+          lineEnd--;
+        }
+        setMarkPos(windowStart + idx + 1);
+        return new MappedLine(true, lineStart, lineEnd);
+      }
+      scanPos = end;
+    }
+    // No delimiter up to the end of file (or of the largest window)
+    final int lineStart = (int)(pos - windowStart);
+    final LineResult lineResult = new MappedLine(false, lineStart, windowLen);
+    TrackedSource.logger.trace("No delimiter, {} byte(s) from mapped window", lineResult.length());
+    setMarkPos(windowStart + windowLen);
+    return lineResult;
+  }
+
+  private void map(final long pos, final long len) throws IOException {
+    unmap();
+    window = channel.map(FileChannel.MapMode.READ_ONLY, pos, len);
+    window.order(ByteOrder.LITTLE_ENDIAN);
+    windowView = window.duplicate();
+    windowStart = pos;
+    windowLen = (int)len;
+    TrackedSource.logger.trace("Mapped {} {} - {}", new Object[] {
+        source, pos, len
+    });
+  }
+
+  // No line of the window may be used afterwards
+  private void unmap() {
+    final MappedByteBuffer old = window;
+    window = null;
+    windowView = null;
+    if (old == null) { return; }
+    try {
+      if (TrackedFile.INVOKE_CLEANER != null) {
+        TrackedFile.INVOKE_CLEANER.invoke(TrackedFile.UNSAFE, old);
+      }
+      else if (TrackedFile.CLEANER != null) {
+        final Object cleaner = TrackedFile.CLEANER.invoke(old);
+        if (cleaner != null) {
+          TrackedFile.CLEAN.invoke(cleaner);
+        }
+      }
+    }
+    catch (final Exception e) {
+      TrackedSource.logger.debug("Unable to unmap window of {}", source, e);
+    }
+  }
+
+  private void truncated(final InternalError e) {
+    TrackedSource.logger.warn("Mapped file changed while reading {}", source, e);
+    truncated = true;
+  }
+
   @Override
   public boolean isOpen() {
     return channel != null;
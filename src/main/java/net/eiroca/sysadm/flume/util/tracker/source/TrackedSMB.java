@@ -17,6 +17,9 @@
 package net.eiroca.sysadm.flume.util.tracker.source;
 
 import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import com.google.common.util.concurrent.Uninterruptibles;
 import jcifs.CIFSContext;
 import jcifs.smb.SmbException;
 import jcifs.smb.SmbFile;
@@ -24,11 +27,17 @@ import jcifs.smb.SmbRandomAccessFile;
 import net.eiroca.ext.library.smb.LibSmb;
 import net.eiroca.sysadm.flume.util.tracker.watcher.WatcherConfig;
 
-public class TrackedSMB extends TrackedStream {
+public class TrackedSMB extends TrackedStream implements ReadAhead.BlockReader {
 
   private transient SmbRandomAccessFile channel;
   private transient CIFSContext context;
   private transient SmbFile file;
+  // position of the next block to read, the channel pointer may be ahead with read-ahead
+  private transient long filePos;
+  private transient ReadAhead readAhead;
+  // read-ahead handles (one per read in flight), opened on demand
+  private transient BlockingQueue<SmbRandomAccessFile> handles;
+  private transient int handleCount;
 
   public TrackedSMB(final SmbFile file, final long commitPos, final WatcherConfig config) {
     this.commitPos = commitPos;
@@ -78,6 +87,11 @@ public class TrackedSMB extends TrackedStream {
     id = LibSmb.getID(file);
     super.open(pos);
     channel = new SmbRandomAccessFile(source, "r", config.shareMode, context);
+    if (config.readAhead > 0) {
+      readAhead = new ReadAhead(this, config.bufferSize, config.readAhead);
+      handles = new ArrayBlockingQueue<>(config.readAhead);
+      handleCount = 0;
+    }
     commit(pos);
     seek(pos);
   }
@@ -85,10 +99,13 @@ public class TrackedSMB extends TrackedStream {
   @Override
   public void seek(final long pos) throws IOException {
     bufferPos = TrackedStream.NEED_READING;
-    oldBuffer = new byte[0];
+    resetCarry();
+    if (readAhead != null) {
+      readAhead.cancel();
+    }
     final long size = (pos > 0) ? channelSize(true) : 0;
     if (pos <= size) {
-      channel.seek(pos);
+      filePos = pos;
       markPos = pos;
     }
     else {
@@ -102,6 +119,15 @@ public class TrackedSMB extends TrackedStream {
   public void close() {
     TrackedSource.logger.info(String.format("Closing file: %s ID: %s pos: %d", getSource(), getID(), getCommittedPosition()));
     try {
+      if (readAhead != null) {
+        readAhead.cancel();
+        readAhead = null;
+        SmbRandomAccessFile handle;
+        while ((handle = handles.poll()) != null) {
+          handle.close();
+        }
+        handles = null;
+      }
       if (channel != null) {
         channel.close();
         channel = null;
@@ -121,7 +147,9 @@ public class TrackedSMB extends TrackedStream {
     long size = -1;
     if (channel != null) {
       try {
-        size = channel.length();
+        synchronized (channel) {
+          size = channel.length();
+        }
         if (validate) {
           final long fLen = file.length();
           if (fLen < size) {
@@ -138,45 +166,74 @@ public class TrackedSMB extends TrackedStream {
     return size;
   }
 
-  private void readBlock() throws IOException {
-    byte[] buf;
-    final long filePos = channel.getFilePointer();
-    final long fileSize = channel.length();
-    int blockSize = (int)(fileSize - filePos);
-    int blockRead;
-    if (blockSize > config.bufferSize) {
-      blockSize = config.bufferSize;
+  /**
+   * Positional read. Synchronous reads use the channel, read-ahead ones (running concurrently) a
+   * handle of the pool.
+   */
+  @Override
+  public int read(final long pos, final byte[] buf, final int len) throws IOException {
+    if (handles == null) {
+      synchronized (channel) {
+        if (channel.getFilePointer() != pos) {
+          channel.seek(pos);
+        }
+        return channel.read(buf, 0, len);
+      }
+    }
+    SmbRandomAccessFile handle = handles.poll();
+    if (handle == null) {
+      synchronized (this) {
+        if (handleCount < config.readAhead) {
+          handle = new SmbRandomAccessFile(source, "r", config.shareMode, context);
+          handleCount++;
+        }
+      }
+      if (handle == null) {
+        handle = Uninterruptibles.takeUninterruptibly(handles);
+      }
+    }
+    try {
+      handle.seek(pos);
+      return handle.read(buf, 0, len);
     }
-    buf = new byte[blockSize];
-    blockRead = channel.read(buf);
-    if (blockRead == blockSize) {
-      buffer = buf;
+    finally {
+      handles.offer(handle);
+    }
+  }
+
+  private void readBlock(final long fileSize) throws IOException {
+    final byte[] buf = getReadBuffer();
+    int blockRead;
+    if (readAhead != null) {
+      blockRead = readAhead.read(filePos, fileSize, buf);
     }
     else {
-      buffer = new byte[blockRead];
-      System.arraycopy(buf, 0, buffer, 0, blockRead);
+      blockRead = read(filePos, buf, (int)Math.min(buf.length, fileSize - filePos));
     }
+    bufferLen = Math.max(blockRead, 0);
     bufferPos = 0;
-    TrackedSource.logger.trace(String.format("Reading %s %d / %d - %d / %d", getID(), blockRead, blockSize, filePos, fileSize));
+    TrackedSource.logger.trace(String.format("Reading %s %d - %d / %d", getID(), blockRead, filePos, fileSize));
+    filePos += bufferLen;
   }
 
   @Override
   public boolean readLogicBlock() throws IOException {
     boolean dataRead = false;
     if (channel == null) { return dataRead; }
-    if (channel.getFilePointer() < channelSize()) {
+    final long fileSize = channelSize();
+    if (filePos < fileSize) {
       try {
         boolean needRead = true;
         boolean skipped = false;
         int invalidBlocks = 0;
         while (needRead) {
-          readBlock();
-          bufferPos = checkInvalidBlock(buffer);
+          readBlock(fileSize);
+          bufferPos = checkInvalidBlock(buffer, bufferLen);
           final boolean invalidblock = bufferPos < 0;
           dataRead = !invalidblock;
           if (invalidblock && !skipped) {
             invalidBlocks++;
-            setMarkPos(channel.getFilePointer());
+            setMarkPos(filePos);
             if ((invalidBlocks < config.maxInvalidBlocks)) {
               TrackedSource.logger.trace("{} has nvalid block {}", source, invalidBlocks);
             }
@@ -185,10 +242,13 @@ public class TrackedSMB extends TrackedStream {
               long newPos = -1;
               if (cLen > 0) {
                 newPos = cLen - (config.keepBlocks * config.bufferSize);
-                if (newPos <= channel.getFilePointer()) {
-                  newPos = channel.getFilePointer();
+                if (newPos <= filePos) {
+                  newPos = filePos;
+                }
+                if (readAhead != null) {
+                  readAhead.cancel();
                 }
-                channel.seek(newPos);
+                filePos = newPos;
                 TrackedSource.logger.info("Skipping to {} of {}", newPos, source);
               }
               else {
@@ -196,7 +256,7 @@ public class TrackedSMB extends TrackedStream {
                 close();
                 needRead = false;
               }
-              setMarkPos(channel.getFilePointer());
+              setMarkPos(filePos);
               skipped = true;
             }
           }
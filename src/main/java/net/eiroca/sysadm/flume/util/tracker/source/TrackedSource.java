@@ -18,14 +18,13 @@ package net.eiroca.sysadm.flume.util.tracker.source;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import org.apache.flume.Event;
 import org.apache.flume.event.EventBuilder;
-import org.apache.http.util.ByteArrayBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import com.google.common.collect.Lists;
 import net.eiroca.library.core.LibStr;
 import net.eiroca.library.regex.LibRegEx;
 import net.eiroca.sysadm.flume.api.ext.ITrackedSource;
@@ -36,6 +35,8 @@ abstract public class TrackedSource extends ConfigurableObject implements ITrack
 
   protected static final Logger logger = LoggerFactory.getLogger(TrackedSource.class);
 
+  private static final int MAX_PRESIZE = 1024;
+
   protected WatcherConfig config;
   protected boolean committed = true;
 
@@ -68,7 +69,7 @@ abstract public class TrackedSource extends ConfigurableObject implements ITrack
   public List<Event> readEvents(final int numEvents, final boolean backoffWithoutNL, final boolean flush) throws IOException {
     TrackedSource.logger.trace("ReadEvents");
     currentDate = System.currentTimeMillis();
-    final List<Event> events = Lists.newLinkedList();
+    final List<Event> events = new ArrayList<>(Math.min(numEvents, TrackedSource.MAX_PRESIZE));
     for (int i = 0; i < numEvents; i++) {
       final Event event = readSourceEvent(backoffWithoutNL, flush);
       if (event == null) {
@@ -79,7 +80,12 @@ abstract public class TrackedSource extends ConfigurableObject implements ITrack
     return events;
   }
 
-  private final List<LineResult> lineBuffer = new ArrayList<>();
+  // Event being assembled: lines (and separators) are appended as they are read
+  private static final int EVENT_BUFFER_SIZE = 4 * 1024;
+  private static final int MAX_EVENT_BUFFER_SIZE = 1024 * 1024;
+  private byte[] eventBuffer = new byte[TrackedSource.EVENT_BUFFER_SIZE];
+  private int eventLen = 0;
+  private int eventLines = 0;
 
   private Event readSourceEvent(final boolean backoffWithoutNL, final boolean flush) throws IOException {
     Event event = null;
@@ -87,7 +93,7 @@ abstract public class TrackedSource extends ConfigurableObject implements ITrack
     while (event == null) {
       final LineResult line = readLine(flush);
       if (line != null) {
-        TrackedSource.logger.trace("Line-length: {}", line.line.length);
+        TrackedSource.logger.trace("Line-length: {}", line.length());
         if (backoffWithoutNL && !line.lineSepInclude) {
           TrackedSource.logger.debug(String.format("Backing off in file without newline: %s fileKey: %s pos: %d", getSource(), getID(), getMarkPos()));
           seek(offset);
@@ -95,15 +101,15 @@ abstract public class TrackedSource extends ConfigurableObject implements ITrack
         }
         else {
           if (checkNewEvent(line)) {
-            event = mergeLine(lineBuffer, offset);
-            TrackedSource.logger.trace("Merged: {}", event != null ? LibStr.toString(event.getBody()) : "");
-            TrackedSource.logger.trace("Adding {}", new String(line.line));
-            lineBuffer.add(line);
+            event = mergeLine(offset);
+            if (TrackedSource.logger.isTraceEnabled()) {
+              TrackedSource.logger.trace("Merged: {}", event != null ? LibStr.toString(event.getBody()) : "");
+            }
           }
-          else {
-            TrackedSource.logger.trace("Adding {}", new String(line.line));
-            lineBuffer.add(line);
+          if (TrackedSource.logger.isTraceEnabled()) {
+            TrackedSource.logger.trace("Adding {}", new String(line.getLine()));
           }
+          appendLine(line);
         }
       }
       if (line == null) {
@@ -113,7 +119,7 @@ abstract public class TrackedSource extends ConfigurableObject implements ITrack
     }
     final long now = System.currentTimeMillis();
     if ((event == null) && (flush)) {
-      event = mergeLine(lineBuffer, offset);
+      event = mergeLine(offset);
       TrackedSource.logger.trace("Merged exit: {}", event != null ? LibStr.toString(event.getBody()) : "");
     }
     TrackedSource.logger.debug("readEvent @{}: {}", now, event);
@@ -121,32 +127,51 @@ abstract public class TrackedSource extends ConfigurableObject implements ITrack
   }
 
   private boolean checkNewEvent(final LineResult line) {
-    if (getConfig().matcher == null) { return true; }
-    final String raw = LibStr.buildString(line.line, getConfig().encoding);
-    boolean match = LibRegEx.find(getConfig().matcher, raw, getConfig().sizeLimit);
+    final EventStartMatcher startMatcher = getConfig().startMatcher;
+    boolean match;
+    if (startMatcher != null) {
+      match = startMatcher.matches(line);
+    }
+    else {
+      if (getConfig().matcher == null) { return true; }
+      final String raw = LibStr.buildString(line.getLine(), getConfig().encoding);
+      match = LibRegEx.find(getConfig().matcher, raw, getConfig().sizeLimit);
+      TrackedSource.logger.trace("String: {} Negate: {}", raw, getConfig().negate);
+    }
     if (getConfig().negate) {
       match = !match;
     }
     final boolean makeEvent = getConfig().newEvent;
     final boolean result = match ? makeEvent : !makeEvent;
-    TrackedSource.logger.trace("String: {} Negate: {}", raw, getConfig().negate);
     TrackedSource.logger.trace("Matching Result: {} Action: {}", match, result);
     return result;
   }
 
-  private Event mergeLine(final List<LineResult> lines, final long offSet) {
+  private void appendLine(final LineResult line) {
+    final byte[] separator = getConfig().separator;
+    final int separatorLen = ((eventLines > 0) && (separator != null)) ? separator.length : 0;
+    final int size = eventLen + separatorLen + line.length();
+    if (size > eventBuffer.length) {
+      eventBuffer = Arrays.copyOf(eventBuffer, Math.max(size, eventBuffer.length * 2));
+    }
+    if (separatorLen > 0) {
+      System.arraycopy(separator, 0, eventBuffer, eventLen, separatorLen);
+      eventLen += separatorLen;
+    }
+    eventLen = line.copyTo(eventBuffer, eventLen);
+    eventLines++;
+  }
+
+  private Event mergeLine(final long offSet) {
     Event event = null;
-    if (lines.size() > 0) {
-      final ByteArrayBuffer buf = new ByteArrayBuffer(getConfig().bufferSize);
-      final byte[] separator = getConfig().separator;
-      for (int i = 0; i < lines.size(); i++) {
-        final LineResult line = lines.get(i);
-        if ((i > 0) && (separator != null)) {
-          buf.append(separator, 0, separator.length);
-        }
-        buf.append(line.line, 0, line.line.length);
+    if (eventLines > 0) {
+      final byte[] body = Arrays.copyOf(eventBuffer, eventLen);
+      eventLen = 0;
+      eventLines = 0;
+      if (eventBuffer.length > TrackedSource.MAX_EVENT_BUFFER_SIZE) {
+        eventBuffer = new byte[TrackedSource.EVENT_BUFFER_SIZE];
       }
-      event = EventBuilder.withBody(buf.toByteArray());
+      event = EventBuilder.withBody(body);
       final Map<String, String> eventHeaders = event.getHeaders();
       if ((config.headers != null) && (!config.headers.isEmpty())) {
         eventHeaders.putAll(config.headers);
@@ -165,7 +190,6 @@ abstract public class TrackedSource extends ConfigurableObject implements ITrack
       if (header != null) {
         eventHeaders.put(header, String.valueOf(getCurrentDate()));
       }
-      lines.clear();
     }
     return event;
   }
@@ -17,7 +17,9 @@
 package net.eiroca.sysadm.flume.util.tracker.source;
 
 import java.io.IOException;
-import net.eiroca.library.core.Helper;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 
 abstract public class TrackedStream extends TrackedSource {
 
@@ -29,14 +31,55 @@ abstract public class TrackedStream extends TrackedSource {
   protected long markPos;
   protected long commitPos;
 
+  // Read buffer, reused for every block: valid data is buffer[0, bufferLen)
   protected byte[] buffer;
-  protected byte[] oldBuffer;
+  protected int bufferLen;
   protected int bufferPos;
+  private ByteBuffer bufferView;
+
+  // Carry-over of the line spanning blocks: oldBuffer[0, oldLen), grown by doubling
+  protected byte[] oldBuffer;
+  protected int oldLen;
+
+  /**
+   * @return the read buffer, (re)allocated only when the configured size changes.
+   */
+  protected byte[] getReadBuffer() {
+    if ((buffer == null) || (buffer.length != config.bufferSize)) {
+      buffer = new byte[config.bufferSize];
+      bufferView = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    return buffer;
+  }
+
+  protected void resetCarry() {
+    oldLen = 0;
+    // Don't keep around the buffer of a huge line
+    if ((oldBuffer != null) && (oldBuffer.length > (4 * config.bufferSize))) {
+      oldBuffer = null;
+    }
+  }
+
+  private void appendCarry(final int from, final int len) {
+    final int size = oldLen + len;
+    if (oldBuffer == null) {
+      oldBuffer = new byte[Math.max(size, 256)];
+    }
+    else if (size > oldBuffer.length) {
+      oldBuffer = Arrays.copyOf(oldBuffer, Math.max(size, oldBuffer.length * 2));
+    }
+    System.arraycopy(buffer, from, oldBuffer, oldLen, len);
+    oldLen = size;
+  }
 
   protected int checkInvalidBlock(final byte[] buffer) {
+    return checkInvalidBlock(buffer, buffer.length);
+  }
+
+  protected int checkInvalidBlock(final byte[] buffer, final int length) {
     TrackedSource.logger.trace("Checking Invalid block");
     int result = -1;
-    for (int i = 0; i < buffer.length; i++) {
+    for (int i = 0; i < length; i++) {
       if (buffer[i] != config.invalidChar) {
         result = i;
         break;
@@ -55,47 +98,48 @@ abstract public class TrackedStream extends TrackedSource {
         final boolean dataRead = readLogicBlock();
         if (!dataRead) {
           if (flush) {
-            final int oldSize = oldBuffer.length;
-            TrackedSource.logger.trace("No data from file, {} byte from old buffer", oldSize);
-            if (oldSize > 0) {
-              lineResult = new LineResult(false, oldBuffer);
-              oldBuffer = new byte[0];
-              setMarkPos(markPos + lineResult.line.length);
+            TrackedSource.logger.trace("No data from file, {} byte from old buffer", oldLen);
+            if (oldLen > 0) {
+              lineResult = new LineResult(false, Arrays.copyOf(oldBuffer, oldLen));
+              resetCarry();
+              setMarkPos(markPos + lineResult.length());
             }
           }
           return lineResult;
         }
       }
-      for (int i = bufferPos; i < buffer.length; i++) {
-        if (buffer[i] == config.delimiter) {
-          int oldLen = oldBuffer.length;
-          // Don't copy last byte(NEW_LINE)
-          int lineLen = i - bufferPos;
-          // For windows, check for CR
-          if ((i > 0) && (buffer[i - 1] == config.trimmed)) {
-            lineLen -= 1;
-          }
-          else if ((oldBuffer.length > 0) && (oldBuffer[oldBuffer.length - 1] == config.trimmed)) {
-            oldLen -= 1;
-          }
-          lineResult = new LineResult(true, Helper.concatByteArrays(oldBuffer, 0, oldLen, buffer, bufferPos, lineLen));
-          setMarkPos(markPos + (oldBuffer.length + ((i - bufferPos) + 1)));
-          oldBuffer = new byte[0];
-          if ((i + 1) < buffer.length) {
-            bufferPos = i + 1;
-          }
-          else {
-            bufferPos = TrackedStream.NEED_READING;
-          }
-          break;
+      final int i = LineScanner.indexOf(bufferView, bufferPos, bufferLen, config.delimiter);
+      if (i >= 0) {
+        int carryLen = oldLen;
+        // Don't copy last byte(NEW_LINE)
+        int lineLen = i - bufferPos;
+        // For windows, check for CR
+        if ((i > bufferPos) && (buffer[i - 1] == config.trimmed)) {
+          lineLen -= 1;
+        }
+        else if ((i == bufferPos) && (oldLen > 0) && (oldBuffer[oldLen - 1] == config.trimmed)) {
+          carryLen -= 1;
+        }
+        // The line is the only copy of its bytes
+        final byte[] line = new byte[carryLen + lineLen];
+        if (carryLen > 0) {
+          System.arraycopy(oldBuffer, 0, line, 0, carryLen);
+        }
+        System.arraycopy(buffer, bufferPos, line, carryLen, lineLen);
+        lineResult = new LineResult(true, line);
+        setMarkPos(markPos + (oldLen + ((i - bufferPos) + 1)));
+        resetCarry();
+        if ((i + 1) < bufferLen) {
+          bufferPos = i + 1;
+        }
+        else {
+          bufferPos = TrackedStream.NEED_READING;
         }
-      }
-      if (lineResult != null) {
         break;
       }
       // NEW_LINE not showed up at the end of the buffer
-      oldBuffer = Helper.concatByteArrays(oldBuffer, 0, oldBuffer.length, buffer, bufferPos, buffer.length - bufferPos);
-      TrackedSource.logger.trace("Appending data. oldbuffer.length: {}", oldBuffer.length);
+      appendCarry(bufferPos, bufferLen - bufferPos);
+      TrackedSource.logger.trace("Appending data. oldbuffer.length: {}", oldLen);
       bufferPos = TrackedStream.NEED_READING;
     }
     return lineResult;
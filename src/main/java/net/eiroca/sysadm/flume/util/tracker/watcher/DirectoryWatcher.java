@@ -24,10 +24,18 @@ import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import com.google.common.collect.Lists;
@@ -55,6 +63,12 @@ import net.eiroca.sysadm.flume.plugin.TrackerSource;
  * both {@code System.currentTimeMillis()} and {@code File.lastModified()}. Also that system clock
  * is used for file system timestamps. If it is not the case then configure it as uncached. Class is
  * solely for package only usage. Member functions are not thread safe.
+ * <p>
+ * </p>
+ * With <code>watch-service</code> the parent directory is registered to a {@link WatchService} and
+ * the matched files are kept up to date from the CREATE, MODIFY and DELETE events, only the files
+ * named by an event are stat-ed again. On OVERFLOW (or if the directory can't be watched) the
+ * whole directory is listed again as in polling mode.
  *
  * @see TrackerSource
  * @see TrackerEventReader
@@ -82,6 +96,15 @@ public class DirectoryWatcher extends Watcher implements DirectoryStream.Filter<
   transient private List<IWatcherResult> lastMatchedFiles = Lists.newArrayList();
   final PathMatcher matcher;
 
+  // watch-service mode: matched files by name (null -> full listing needed) and sources touched by
+  // the events of the last check (valid only if changedKnown)
+  transient private WatchService watchService;
+  transient private WatchKey watchKey;
+  transient private boolean watchFailed;
+  transient private Map<String, IWatcherResult> watched;
+  transient private final Set<String> changedSources = new HashSet<>();
+  transient private boolean changedKnown;
+
   /**
    * Package accessible constructor. From configuration context it represents a single
    * <code>filegroup</code> and encapsulates the corresponding <code>filePattern</code>.
@@ -151,7 +174,17 @@ public class DirectoryWatcher extends Watcher implements DirectoryStream.Filter<
   @Override
   public List<IWatcherResult> getMatchingFiles() {
     DirectoryWatcher.logger.trace("Checking files: {}", parentDir.exists());
-    if (!parentDir.exists()) { return Lists.newArrayList(); }
+    changedKnown = false;
+    if (!parentDir.exists()) {
+      close();
+      return Lists.newArrayList();
+    }
+    if (config.watchService && !watchFailed) {
+      if (watchKey == null) {
+        openWatch();
+      }
+      if (watchKey != null) { return getWatchedFiles(); }
+    }
     final long now = TimeUnit.SECONDS.toMillis(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
     final long currentParentDirMTime = parentDir.lastModified();
     // calculate matched files if
@@ -167,6 +200,107 @@ public class DirectoryWatcher extends Watcher implements DirectoryStream.Filter<
     return lastMatchedFiles;
   }
 
+  @Override
+  public Set<String> getChangedSources() {
+    return changedKnown ? changedSources : null;
+  }
+
+  @Override
+  public void close() {
+    watchKey = null;
+    watched = null;
+    if (watchService != null) {
+      try {
+        watchService.close();
+      }
+      catch (final IOException e) {
+        DirectoryWatcher.logger.debug("Unable to close watch service of '{}'", parentDir, e);
+      }
+      watchService = null;
+    }
+  }
+
+  // Register parentDir before listing it, so no change can be lost in between
+  private void openWatch() {
+    try {
+      watchService = DirectoryWatcher.FS.newWatchService();
+      watchKey = parentDir.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+      watched = null;
+    }
+    catch (IOException | UnsupportedOperationException e) {
+      DirectoryWatcher.logger.warn("Unable to watch '{}', falling back to polling", parentDir, e);
+      watchFailed = true;
+      close();
+    }
+  }
+
+  /**
+   * Apply the pending directory events to the matched files. Falls back to a full listing on the
+   * first call, on OVERFLOW and when the watch key is no longer valid.
+   */
+  private List<IWatcherResult> getWatchedFiles() {
+    boolean rescan = (watched == null);
+    boolean valid = true;
+    final Set<String> touched = new HashSet<>();
+    WatchKey key;
+    while ((key = watchService.poll()) != null) {
+      for (final WatchEvent<?> event : key.pollEvents()) {
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+          rescan = true;
+        }
+        else {
+          final Path name = (Path)event.context();
+          if (matcher.matches(name)) {
+            touched.add(name.toString());
+          }
+        }
+      }
+      valid = key.reset() && valid;
+    }
+    changedSources.clear();
+    if (rescan) {
+      DirectoryWatcher.logger.debug("Listing '{}'", parentDir);
+      watched = new HashMap<>();
+      for (final IWatcherResult r : getMatchingFilesNoCache()) {
+        watched.put(new File(r.getSource()).getName(), r);
+      }
+      lastMatchedFiles = sortByLastModifiedTime(new ArrayList<>(watched.values()));
+    }
+    else if (!touched.isEmpty()) {
+      for (final String name : touched) {
+        final File f = new File(parentDir, name);
+        IWatcherResult r;
+        if (f.isFile()) {
+          r = new FileWatcherResult(f);
+          watched.put(name, r);
+        }
+        else {
+          r = watched.remove(name);
+        }
+        if (r != null) {
+          changedSources.add(r.getSource());
+        }
+      }
+      lastMatchedFiles = sortByLastModifiedTime(new ArrayList<>(watched.values()));
+    }
+    changedKnown = !rescan;
+    if (!valid) {
+      DirectoryWatcher.logger.info("Watch of '{}' is no longer valid", parentDir);
+      close();
+    }
+    if (config.maxAge > 0) {
+      final long now = System.currentTimeMillis();
+      final List<IWatcherResult> result = new ArrayList<>(lastMatchedFiles.size());
+      for (final IWatcherResult r : lastMatchedFiles) {
+        if ((now - r.getUpdateDate()) <= config.maxAge) {
+          result.add(r);
+        }
+      }
+      return result;
+    }
+    return lastMatchedFiles;
+  }
+
   /**
    * Provides the actual files within the parentDir which files are matching the regex pattern. Each
    * invocation uses {@link DirectoryStream} to identify matching files.
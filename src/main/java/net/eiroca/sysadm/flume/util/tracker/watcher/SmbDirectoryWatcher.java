@@ -17,37 +17,63 @@
 package net.eiroca.sysadm.flume.util.tracker.watcher;
 
 import java.net.MalformedURLException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 import org.slf4j.Logger;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import jcifs.smb.SmbException;
 import jcifs.smb.SmbFile;
-import net.eiroca.ext.library.smb.ISMBFileVisitor;
 import net.eiroca.ext.library.smb.LibSmb;
 import net.eiroca.library.core.LibStr;
 import net.eiroca.library.system.Logs;
 import net.eiroca.sysadm.flume.api.ext.IWatcherResult;
 
+/**
+ * Watches the files matching a regex in a remote directory tree.
+ * <p>
+ * </p>
+ * The tree is cached per directory: a directory is listed again only when its last modified time
+ * changes or its listing is older than <code>max-cache-time</code>, the others are served from the
+ * cache (one stat per directory). The tree is walked level by level and the directories of a level
+ * are checked in parallel on <code>list-threads</code> threads.
+ */
 public class SmbDirectoryWatcher extends Watcher implements Comparator<IWatcherResult> {
 
   transient private static final Logger logger = Logs.getLogger();
 
-  // system time in milliseconds, stores the last modification time of the
-  // parent directory seen by the last check, rounded to seconds
-  // initial value is used in first check only when it will be replaced instantly
-  // (system time is positive)
-  private long lastSeenParentDirMTime = -1;
-  // system time in milliseconds, time of the last check, rounded to seconds
-  // initial value is used in first check only when it will be replaced instantly
-  // (system time is positive)
-  private long lastCheckedTime = -1;
-  // cached content, files which matched the pattern within the parent directory
+  // Cached listing of a directory: its subdirectories and the matching files
+  private static final class DirListing {
+
+    final long modified;
+    final long checked;
+    final List<SmbFile> dirs;
+    final List<IWatcherResult> files;
+
+    DirListing(final long modified, final long checked, final List<SmbFile> dirs, final List<IWatcherResult> files) {
+      this.modified = modified;
+      this.checked = checked;
+      this.dirs = dirs;
+      this.files = files;
+    }
+
+  }
+
+  // cached content, files which matched the pattern within the tree
   transient private List<IWatcherResult> lastMatchedFiles = Lists.newArrayList();
+  // cached listings by directory URL
+  transient private Map<String, DirListing> tree = new HashMap<>();
+  transient private ExecutorService listers;
 
   // directory monitored for changes
   transient private final SmbFile basePath;
@@ -71,13 +97,19 @@ public class SmbDirectoryWatcher extends Watcher implements Comparator<IWatcherR
     try {
       if ((basePath != null) && (basePath.exists())) {
         SmbDirectoryWatcher.logger.trace("getMatchingFiles()");
-        final long now = TimeUnit.SECONDS.toMillis(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
-        final long currentParentDirMTime = basePath.lastModified();
-        if (!config.cachePatternMatching || (lastSeenParentDirMTime < currentParentDirMTime) || !(currentParentDirMTime < lastCheckedTime) || ((now - lastCheckedTime) > config.maxCacheTime)) {
-          lastMatchedFiles = sortByLastModifiedTime(getMatchingFilesNoCache());
-          lastSeenParentDirMTime = currentParentDirMTime;
-          lastCheckedTime = now;
+        final List<IWatcherResult> files = getMatchingFilesCached();
+        if (config.maxAge > 0) {
+          final long now = System.currentTimeMillis();
+          for (final IWatcherResult r : files) {
+            if ((now - r.getUpdateDate()) <= config.maxAge) {
+              result.add(r);
+            }
+          }
         }
+        else {
+          result.addAll(files);
+        }
+        lastMatchedFiles = sortByLastModifiedTime(result);
         result = lastMatchedFiles;
       }
     }
@@ -87,32 +119,88 @@ public class SmbDirectoryWatcher extends Watcher implements Comparator<IWatcherR
     return result;
   }
 
-  private List<IWatcherResult> getMatchingFilesNoCache() throws SmbException {
-    SmbDirectoryWatcher.logger.trace("getMatchingFilesNoCache()");
-    final List<IWatcherResult> result = Lists.newArrayList();
-    LibSmb.walkFileTree(basePath, 0, new ISMBFileVisitor() {
-
-      @Override
-      public boolean visitFile(final SmbFile f) throws SmbException {
-        SmbDirectoryWatcher.logger.trace("Looking {}", f.getCanonicalPath());
-        boolean valid = regex.matcher(f.getCanonicalPath()).find();
-        if (valid) {
-          if (config.maxAge > 0) {
-            final long now = System.currentTimeMillis();
-            if (((now - f.lastModified())) > config.maxAge) {
-              valid = false;
-            }
+  /**
+   * Walk the tree level by level, listing only the directories changed since their cached listing.
+   * Directories no longer found are dropped from the cache.
+   */
+  private List<IWatcherResult> getMatchingFilesCached() throws SmbException {
+    final long now = System.currentTimeMillis();
+    final Map<String, DirListing> newTree = new HashMap<>();
+    final List<IWatcherResult> result = new ArrayList<>();
+    List<SmbFile> level = Collections.singletonList(basePath);
+    while (!level.isEmpty()) {
+      final List<DirListing> listings = new ArrayList<>(level.size());
+      if (level.size() == 1) {
+        listings.add(check(level.get(0), now));
+      }
+      else {
+        final List<Future<DirListing>> pending = new ArrayList<>(level.size());
+        for (final SmbFile dir : level) {
+          pending.add(getListers().submit(() -> check(dir, now)));
+        }
+        for (final Future<DirListing> f : pending) {
+          try {
+            listings.add(Uninterruptibles.getUninterruptibly(f));
           }
-          if (valid) {
-            result.add(new SmbFileWatcherResult(f));
+          catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof SmbException) { throw (SmbException)cause; }
+            throw new SmbException(String.valueOf(cause), cause);
           }
         }
-        return true;
       }
-    });
+      final List<SmbFile> next = new ArrayList<>();
+      for (int i = 0; i < listings.size(); i++) {
+        final DirListing listing = listings.get(i);
+        newTree.put(level.get(i).getURL().toString(), listing);
+        result.addAll(listing.files);
+        next.addAll(listing.dirs);
+      }
+      level = next;
+    }
+    tree = newTree;
     return result;
   }
 
+  // Cached listing of dir if still valid, otherwise a new one
+  private DirListing check(final SmbFile dir, final long now) throws SmbException {
+    final long modified = dir.lastModified();
+    final DirListing cached = tree.get(dir.getURL().toString());
+    // a listing taken in the same tick as the last change may have missed entries created right after it
+    if (config.cachePatternMatching && (cached != null) && (cached.modified == modified) && (modified < cached.checked) && ((now - cached.checked) <= config.maxCacheTime)) { return cached; }
+    SmbDirectoryWatcher.logger.trace("Listing {}", dir.getCanonicalPath());
+    final List<SmbFile> dirs = new ArrayList<>();
+    final List<IWatcherResult> files = new ArrayList<>();
+    for (final SmbFile f : dir.listFiles()) {
+      if (f.isDirectory()) {
+        dirs.add(f);
+      }
+      else {
+        SmbDirectoryWatcher.logger.trace("Looking {}", f.getCanonicalPath());
+        if (regex.matcher(f.getCanonicalPath()).find()) {
+          files.add(new SmbFileWatcherResult(f));
+        }
+      }
+    }
+    return new DirListing(modified, now, dirs, files);
+  }
+
+  private synchronized ExecutorService getListers() {
+    if (listers == null) {
+      listers = Executors.newFixedThreadPool(Math.max(1, config.listThreads), new ThreadFactoryBuilder().setNameFormat(getName() + "-list-%d").setDaemon(true).build());
+    }
+    return listers;
+  }
+
+  @Override
+  public synchronized void close() {
+    if (listers != null) {
+      listers.shutdown();
+      listers = null;
+    }
+    tree = new HashMap<>();
+  }
+
   /**
    * Utility function to sort matched files based on last modification time. Sorting itself use only
    * a snapshot of last modification times captured before the sorting to keep the number of stat
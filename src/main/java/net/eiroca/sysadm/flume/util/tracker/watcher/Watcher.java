@@ -16,6 +16,7 @@
  **/
 package net.eiroca.sysadm.flume.util.tracker.watcher;
 
+import java.util.Set;
 import com.google.common.base.Preconditions;
 import net.eiroca.ext.library.gson.GsonUtil;
 import net.eiroca.sysadm.flume.api.ext.IWatcher;
@@ -30,6 +31,15 @@ abstract public class Watcher implements IWatcher {
     this.config = config;
   }
 
+  @Override
+  public Set<String> getChangedSources() {
+    return null;
+  }
+
+  @Override
+  public void close() {
+  }
+
   @Override
   public boolean equals(final Object o) {
     if (this == o) { return true; }
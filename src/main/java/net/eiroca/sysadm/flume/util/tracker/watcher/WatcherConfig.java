@@ -36,6 +36,7 @@ import net.eiroca.library.system.Logs;
 import net.eiroca.sysadm.flume.util.tracker.GroupType;
 import net.eiroca.sysadm.flume.util.tracker.GroupTypeParameter;
 import net.eiroca.sysadm.flume.util.tracker.TrackerManagerConfig;
+import net.eiroca.sysadm.flume.util.tracker.source.EventStartMatcher;
 
 public class WatcherConfig {
 
@@ -67,6 +68,10 @@ public class WatcherConfig {
   /** Max Age (in seconds) of matched file (now- last_modified) < maxAge. MaxAge = -1 -> no check */
   final transient private IntegerParameter pLocalMaxAge = new IntegerParameter(params, "max-age", -2);
   final transient private IntegerParameter pMaxCacheTime = new IntegerParameter(params, "max-cache-time", 60 * 1000);
+  /** Threads listing the directories of a remote tree in parallel */
+  final transient private IntegerParameter pListThreads = new IntegerParameter(params, "list-threads", 4);
+  /** Track directory content with file system events, polling is used as fallback */
+  final transient private BooleanParameter pWatchService = new BooleanParameter(params, "watch-service", false);
 
   /** Share MODE */
   final transient private IntegerParameter pShareMode = new IntegerParameter(params, "share-mode", -1);
@@ -75,6 +80,8 @@ public class WatcherConfig {
   final transient private ByteParameter pDelimiter = new ByteParameter(params, "delimiter", (byte)'\n');
   final transient private ByteParameter pTrimmed = new ByteParameter(params, "trimmed", (byte)'\r');
   final transient private RegExParameter pMatchPattern = new RegExParameter(params, "pattern", null);
+  /** Byte level start of event check (prefix:, class: or timestamp:), used instead of pattern */
+  final transient private StringParameter pStartMatch = new StringParameter(params, "start-match", null);
   final transient private IntegerParameter pSizeLimit = new IntegerParameter(params, "size-limit", 64);
   final transient private BooleanParameter pNegate = new BooleanParameter(params, "negate", false);
   final transient private BooleanParameter pNewEvent = new BooleanParameter(params, "new-event", true);
@@ -83,6 +90,14 @@ public class WatcherConfig {
   final transient private IntegerParameter pKeepBlocks = new IntegerParameter(params, "keep-blocks", 20);
   final transient private IntegerParameter pMaxInvalidBlocks = new IntegerParameter(params, "max-invalid-blocks", 3);
   final transient private ByteParameter pInvalidChar = new ByteParameter(params, "invalid-char", (byte)0);
+  /**
+   * Read local files through memory mapped windows of map-size bytes. A window ends at the file size
+   * when it is mapped, a file that keeps growing is remapped each time new data is read
+   */
+  final transient private BooleanParameter pMemoryMapped = new BooleanParameter(params, "mmap", false);
+  final transient private IntegerParameter pMapSize = new IntegerParameter(params, "map-size", 64 * 1024 * 1024);
+  /** SMB blocks read ahead in background, 0 = synchronous reads */
+  final transient private IntegerParameter pReadAhead = new IntegerParameter(params, "read-ahead", 0);
 
   public String name;
   public GroupType type = GroupType.UNKNOWN;
@@ -92,6 +107,8 @@ public class WatcherConfig {
 
   public boolean cachePatternMatching;
   public int maxCacheTime;
+  public int listThreads;
+  public boolean watchService;
   public long maxAge;
   public int shareMode;
 
@@ -103,6 +120,7 @@ public class WatcherConfig {
   public byte delimiter;
   public byte trimmed;
   public Pattern matcher;
+  public transient EventStartMatcher startMatcher;
   public int sizeLimit;
   public boolean negate;
   public boolean newEvent;
@@ -111,6 +129,9 @@ public class WatcherConfig {
   public int keepBlocks;
   public int maxInvalidBlocks;
   public byte invalidChar;
+  public boolean memoryMapped;
+  public int mapSize;
+  public int readAhead;
 
   public Map<String, String> headers;
 
@@ -134,6 +155,8 @@ public class WatcherConfig {
     }
     maxAge = (localMaxAge >= 0) ? localMaxAge * 1000 : -1;
     maxCacheTime = pMaxCacheTime.get();
+    listThreads = pListThreads.get();
+    watchService = pWatchService.get();
     //
     shareMode = pShareMode.get();
     //
@@ -141,6 +164,7 @@ public class WatcherConfig {
     delimiter = pDelimiter.get();
     trimmed = pTrimmed.get();
     matcher = pMatchPattern.get();
+    startMatcher = EventStartMatcher.build(pStartMatch.get(), encoding);
     sizeLimit = pSizeLimit.get();
     negate = pNegate.get();
     newEvent = pNewEvent.get();
@@ -149,6 +173,9 @@ public class WatcherConfig {
     keepBlocks = pKeepBlocks.get();
     maxInvalidBlocks = pMaxInvalidBlocks.get();
     invalidChar = pInvalidChar.get();
+    memoryMapped = pMemoryMapped.get();
+    mapSize = pMapSize.get();
+    readAhead = pReadAhead.get();
     //
     path = pPath.get();
     type = pGroupType.get();
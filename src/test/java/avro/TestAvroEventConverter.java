@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 1999-2021 Enrico Croce - AGPL >= 3.0
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package avro;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.avro.util.Utf8;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.apache.flume.source.avro.AvroFlumeEvent;
+import org.junit.Assert;
+import org.junit.Test;
+import net.eiroca.sysadm.flume.util.avro.AvroEventConverter;
+
+public class TestAvroEventConverter {
+
+  // events as decoded by the Avro responder: Utf8 headers, body sliced from the request buffer
+  private static List<AvroFlumeEvent> batch(final int size, final boolean sliced) {
+    final List<AvroFlumeEvent> events = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      final Map<CharSequence, CharSequence> headers = new HashMap<>();
+      headers.put(new Utf8("timestamp"), new Utf8(String.valueOf(1500000000000L + i)));
+      headers.put(new Utf8("host"), new Utf8("server" + (i % 4) + ".example.com"));
+      headers.put(new Utf8("application"), new Utf8("billing"));
+      headers.put(new Utf8("type"), new Utf8("access-log"));
+      final byte[] body = ("event body number " + i + " with some payload text").getBytes();
+      ByteBuffer buf;
+      if (sliced) {
+        final byte[] frame = new byte[body.length + 8];
+        System.arraycopy(body, 0, frame, 4, body.length);
+        buf = ByteBuffer.wrap(frame, 4, body.length).slice();
+      }
+      else {
+        buf = ByteBuffer.wrap(body);
+      }
+      events.add(new AvroFlumeEvent(headers, buf));
+    }
+    return events;
+  }
+
+  // AvroSource conversion before AvroEventConverter
+  private static List<Event> legacy(final List<AvroFlumeEvent> events) {
+    final List<Event> batch = new ArrayList<>();
+    for (final AvroFlumeEvent avroEvent : events) {
+      final Map<String, String> stringMap = new HashMap<>();
+      for (final Map.Entry<CharSequence, CharSequence> entry : avroEvent.getHeaders().entrySet()) {
+        stringMap.put(entry.getKey().toString(), entry.getValue().toString());
+      }
+      batch.add(EventBuilder.withBody(avroEvent.getBody().array(), stringMap));
+    }
+    return batch;
+  }
+
+  @Test
+  public void convert() {
+    final List<AvroFlumeEvent> events = TestAvroEventConverter.batch(10, false);
+    final List<Event> batch = AvroEventConverter.toEvents(events);
+    Assert.assertEquals(10, batch.size());
+    for (int i = 0; i < batch.size(); i++) {
+      final Event event = batch.get(i);
+      Assert.assertEquals(String.valueOf(1500000000000L + i), event.getHeaders().get("timestamp"));
+      Assert.assertEquals("billing", event.getHeaders().get("application"));
+      // exactly backed body is not copied
+      Assert.assertSame(events.get(i).getBody().array(), event.getBody());
+    }
+    // same header strings across the batch
+    Assert.assertSame(batch.get(0).getHeaders().get("type"), batch.get(9).getHeaders().get("type"));
+    // sliced body is copied
+    final AvroFlumeEvent sliced = TestAvroEventConverter.batch(1, true).get(0);
+    final Event event = AvroEventConverter.toEvent(sliced, null);
+    Assert.assertArrayEquals("event body number 0 with some payload text".getBytes(), event.getBody());
+  }
+
+  // encoded once, decoded on every round as the responder does for each request
+  private static byte[] encode(final List<AvroFlumeEvent> events) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+    final SpecificDatumWriter<AvroFlumeEvent> writer = new SpecificDatumWriter<>(AvroFlumeEvent.class);
+    encoder.writeArrayStart();
+    encoder.setItemCount(events.size());
+    for (final AvroFlumeEvent event : events) {
+      encoder.startItem();
+      writer.write(event, encoder);
+    }
+    encoder.writeArrayEnd();
+    encoder.flush();
+    return out.toByteArray();
+  }
+
+  private static List<AvroFlumeEvent> decode(final byte[] data, final SpecificDatumReader<AvroFlumeEvent> reader) throws IOException {
+    final BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(data, null);
+    final List<AvroFlumeEvent> events = new ArrayList<>();
+    for (long n = decoder.readArrayStart(); n > 0; n = decoder.arrayNext()) {
+      for (long i = 0; i < n; i++) {
+        events.add(reader.read(null, decoder));
+      }
+    }
+    return events;
+  }
+
+  public void convertThroughput() throws IOException {
+    final byte[] data = TestAvroEventConverter.encode(TestAvroEventConverter.batch(1000, false));
+    final SpecificDatumReader<AvroFlumeEvent> reader = new SpecificDatumReader<>(AvroFlumeEvent.class);
+    long sum = 0;
+    for (int round = 0; round < 5; round++) {
+      for (final boolean legacy : new boolean[] {
+          true, false
+      }) {
+        final long now = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+          final List<AvroFlumeEvent> events = TestAvroEventConverter.decode(data, reader);
+          final List<Event> batch = legacy ? TestAvroEventConverter.legacy(events) : AvroEventConverter.toEvents(events);
+          sum += batch.size();
+        }
+        final double elapsed = (System.nanoTime() - now) / 1e9;
+        System.out.println(String.format("legacy=%b %.0f events/s (%d)", legacy, (1000 * 1000) / elapsed, sum));
+      }
+    }
+  }
+
+}
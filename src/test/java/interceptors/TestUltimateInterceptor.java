@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 1999-2021 Enrico Croce - AGPL >= 3.0
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package interceptors;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+import net.eiroca.library.data.PairEntry;
+import net.eiroca.sysadm.flume.core.util.CompiledMacro;
+import net.eiroca.sysadm.flume.plugin.UltimateInterceptor;
+import net.eiroca.sysadm.flume.util.interceptors.BodyTransformer;
+import net.eiroca.sysadm.flume.util.interceptors.MultiReplacer;
+import net.eiroca.sysadm.flume.util.interceptors.RuleSelector;
+
+public class TestUltimateInterceptor {
+
+  @Test
+  public void bodyTransformer() {
+    final List<PairEntry<String, String>> replacements = new ArrayList<>();
+    replacements.add(new PairEntry<>("\t", "|"));
+    replacements.add(new PairEntry<>(" ", "_"));
+    replacements.add(new PairEntry<>("ab", "AB"));
+    final BodyTransformer transformer = new BodyTransformer(StandardCharsets.UTF_8, null, null, true, replacements);
+    // byte and String pipelines must produce the same body
+    for (final String body : new String[] {
+        "ab\tcd\r\nef", "x\n\n\ny z", "\r\n", "\tab\t", "caf\u00e9 \u00e8\n", "", "nothing"
+    }) {
+      final byte[] data = body.getBytes(StandardCharsets.UTF_8);
+      final String expected = UltimateInterceptor.replace(body, true, replacements);
+      Assert.assertEquals(expected, new String(transformer.transform(data, 0, data.length), StandardCharsets.UTF_8));
+    }
+    final byte[] unchanged = "nothing".getBytes(StandardCharsets.UTF_8);
+    Assert.assertSame(unchanged, transformer.transform(unchanged, 0, unchanged.length));
+    final byte[] data = "ab\tcd\nef".getBytes(StandardCharsets.UTF_8);
+    Assert.assertEquals("AB_c", new String(transformer.transform(data, 0, data.length, 4), StandardCharsets.UTF_8));
+  }
+
+
+  @Test
+  public void ruleSelector() {
+    final CompiledMacro[] rules = {
+        CompiledMacro.compile("rules/%{host}/%{app}.rule"), CompiledMacro.compile("rules/%{app}.rule"), CompiledMacro.compile("rules/default.rule")
+    };
+    final RuleSelector selector = new RuleSelector(rules, 10);
+    Assert.assertTrue(selector.isIndexed());
+    final Map<String, String> h = new HashMap<>();
+    h.put("host", "srv1");
+    h.put("app", "web");
+    Assert.assertArrayEquals(new String[] {
+        "rules/srv1/web.rule", "rules/web.rule", "rules/default.rule"
+    }, selector.select(h));
+    h.remove("host");
+    Assert.assertArrayEquals(new String[] {
+        "rules//web.rule", "rules/web.rule", "rules/default.rule"
+    }, selector.select(h));
+    Assert.assertFalse(new RuleSelector(new CompiledMacro[] {
+        CompiledMacro.compile("rules/%{app}-%Y.rule")
+    }, 10).isIndexed());
+  }
+
+  @Test
+  public void multiReplacer() {
+    final MultiReplacer replacer = new MultiReplacer(Arrays.asList("foo", "bar", "\"", "ab", "abc"), Arrays.asList("F", "B", "'", "1", "2"));
+    Assert.assertEquals("a F 'B' x", replacer.replace("a foo \"bar\" x"));
+    // longest match at the same position wins
+    Assert.assertEquals("2 1", replacer.replace("abc ab"));
+    final String unchanged = "nothing to do";
+    Assert.assertSame(unchanged, replacer.replace(unchanged));
+  }
+
+  public void ruleSelectorBenchmark() {
+    final CompiledMacro[] rules = new CompiledMacro[6];
+    for (int i = 0; i < rules.length; i++) {
+      rules[i] = CompiledMacro.compile("rules/" + i + "/%{host}/%{app}.rule");
+    }
+    final RuleSelector selector = new RuleSelector(rules, 10000);
+    final Map<String, String> h = new HashMap<>();
+    h.put("host", "srv1");
+    h.put("app", "web");
+    final int loops = 10_000_000;
+    long check = 0;
+    for (int j = 0; j < 5; j++) {
+      long now = System.nanoTime();
+      for (int i = 0; i < loops; i++) {
+        for (final CompiledMacro rule : rules) {
+          check += rule.expand(h).length();
+        }
+      }
+      final long expanded = System.nanoTime() - now;
+      now = System.nanoTime();
+      for (int i = 0; i < loops; i++) {
+        for (final String name : selector.select(h)) {
+          check += name.length();
+        }
+      }
+      final long indexed = System.nanoTime() - now;
+      System.out.println("Round " + j + " ns/event expanded: " + (expanded / loops) + " indexed: " + (indexed / loops) + " (" + check + ")");
+    }
+  }
+
+}
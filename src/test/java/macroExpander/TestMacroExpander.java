@@ -18,8 +18,10 @@ package macroExpander;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TimeZone;
 import org.junit.Assert;
 import org.junit.Test;
+import net.eiroca.sysadm.flume.core.util.CompiledMacro;
 import net.eiroca.sysadm.flume.core.util.MacroExpander;
 
 public class TestMacroExpander {
@@ -76,4 +78,90 @@ public class TestMacroExpander {
     System.out.println("total: " + t);
   }
 
+  @Test
+  public void compiledMacro() {
+    final Map<String, String> h = new HashMap<>();
+    final Map<String, Object> f = new HashMap<>();
+    h.put("a", "Hello");
+    h.put("timestamp", "0");
+    f.put("n", 42);
+    final String body = "body";
+    Assert.assertEquals("Hello body 42", CompiledMacro.compile("%{a} %() %(n)").expand(h, body, f));
+    Assert.assertEquals("[] %", CompiledMacro.compile("[%{missing}] %%").expand(h, body));
+    Assert.assertEquals("", CompiledMacro.compile("%()").expand(h, null));
+    Assert.assertEquals("x%", CompiledMacro.compile("x%").expand(h));
+    Assert.assertEquals("1970", CompiledMacro.compile("%Y").expand(h, null, null, TimeZone.getTimeZone("UTC"), false, 0, 0, false));
+    Assert.assertEquals("Hello", CompiledMacro.compile("%{a").expand(h));
+    final String template = "idx-%{a}-%Y.%m.%d";
+    Assert.assertEquals(MacroExpander.expand(template, h, body), CompiledMacro.compile(template).expand(h, body));
+    // cached program, the header value changes between calls
+    h.put("a", "World");
+    Assert.assertEquals("World body", MacroExpander.expand("%{a} %()", h, body));
+    // event data, not cached
+    Assert.assertEquals("World body", MacroExpander.expandValue("%{a} %()", h, body));
+    final String plain = "no macro here";
+    Assert.assertSame(plain, MacroExpander.expand(plain, h, body));
+  }
+
+  @Test
+  public void dateShorthand() {
+    final Map<String, String> h = new HashMap<>();
+    final CompiledMacro macro = CompiledMacro.compile("%Y-%m-%d %H:%M:%S.%0");
+    final TimeZone utc = TimeZone.getTimeZone("UTC");
+    h.put("timestamp", "3599999");
+    Assert.assertEquals("1970-01-01 00:59:59.999", macro.expand(h, null, null, utc, false, 0, 0, false));
+    h.put("timestamp", "3600000");
+    Assert.assertEquals("1970-01-01 01:00:00.000", macro.expand(h, null, null, utc, false, 0, 0, false));
+    Assert.assertEquals("1970-01-01 06:30:00.000", macro.expand(h, null, null, TimeZone.getTimeZone("GMT+05:30"), false, 0, 0, false));
+    h.put("timestamp", "3601000");
+    Assert.assertEquals("1970-01-01 01:00:01.000", macro.expand(h, null, null, utc, false, 0, 0, false));
+  }
+
+  @Test
+  public void staticMacro() {
+    final Map<String, String> h = new HashMap<>();
+    h.put("a", "Hello");
+    final String version = System.getProperty("java.version");
+    CompiledMacro macro = CompiledMacro.compile("v%[java.version]-%[java.version]");
+    Assert.assertTrue(macro.isConstant());
+    Assert.assertEquals("v" + version + "-" + version, macro.expand(h));
+    macro = CompiledMacro.compile("%{a} %[java.version]");
+    Assert.assertFalse(macro.isConstant());
+    Assert.assertEquals("Hello " + version, macro.expand(h));
+    macro = CompiledMacro.compile("%[\"yyyy\"@0]");
+    Assert.assertTrue(macro.isConstant());
+    Assert.assertEquals(4, macro.expand(h).length());
+    macro = CompiledMacro.compile("%[\"yyyy\"@60]");
+    Assert.assertFalse(macro.isConstant());
+    Assert.assertEquals(macro.expand(h), macro.expand(h));
+  }
+
+  public void compiledMacroBenchmark() {
+    final Map<String, String> h = new HashMap<>();
+    h.put("a", "Hello");
+    h.put("b", "world");
+    final String body = "Hello world!";
+    final String template = "%{a} %{b}! %() %{a}";
+    final CompiledMacro macro = CompiledMacro.compile(template);
+    final int loops = 10_000_000;
+    for (int j = 0; j < 5; j++) {
+      long now = System.nanoTime();
+      for (int i = 0; i < loops; i++) {
+        LegacyMacroExpander.expand(template, h, body);
+      }
+      final long parsed = System.nanoTime() - now;
+      now = System.nanoTime();
+      for (int i = 0; i < loops; i++) {
+        MacroExpander.expand(template, h, body);
+      }
+      final long cached = System.nanoTime() - now;
+      now = System.nanoTime();
+      for (int i = 0; i < loops; i++) {
+        macro.expand(h, body);
+      }
+      final long compiled = System.nanoTime() - now;
+      System.out.println("Round " + j + " ns/event parsed: " + (parsed / loops) + " cached: " + (cached / loops) + " compiled: " + (compiled / loops));
+    }
+  }
+
 }
@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 1999-2021 Enrico Croce - AGPL >= 3.0
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package tcp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import net.eiroca.sysadm.flume.util.tcp.MessageParser;
+
+public class TestMessageParser {
+
+  private static class Collector implements MessageParser.Callback {
+
+    final List<byte[]> messages = new ArrayList<>();
+    int skipped;
+    long bytes;
+
+    @Override
+    public void messageComplete(final Map<String, Object> metadata, final byte[] data) throws Exception {
+      if (messages.size() < 1000) {
+        messages.add(data);
+      }
+      bytes += data.length;
+    }
+
+    @Override
+    public void messageSkipped() throws Exception {
+      skipped++;
+    }
+
+  }
+
+  // frames of random size (some above maxSize) with a 4 byte big endian header
+  private static byte[] frames(final int count, final int maxSize, final List<byte[]> expected) {
+    final Random random = new Random(1);
+    final IoBuffer buf = IoBuffer.allocate(1024).setAutoExpand(true);
+    for (int i = 0; i < count; i++) {
+      final byte[] data = new byte[1 + random.nextInt(maxSize + (maxSize / 10))];
+      random.nextBytes(data);
+      buf.putInt(data.length);
+      buf.put(data);
+      if ((expected != null) && (data.length <= maxSize)) {
+        expected.add(data);
+      }
+    }
+    buf.flip();
+    final byte[] result = new byte[buf.remaining()];
+    buf.get(result);
+    return result;
+  }
+
+  @Test
+  public void fragmented() {
+    final List<byte[]> expected = new ArrayList<>();
+    final byte[] stream = TestMessageParser.frames(500, 300, expected);
+    final Random random = new Random(2);
+    final Collector collector = new Collector();
+    final MessageParser parser = new MessageParser(LoggerFactory.getLogger(TestMessageParser.class), collector, 4, 300);
+    int pos = 0;
+    while (pos < stream.length) {
+      // chunks cut headers and payloads at any point
+      final int len = Math.min(stream.length - pos, 1 + random.nextInt(700));
+      Assert.assertTrue(parser.process(IoBuffer.wrap(stream, pos, len)));
+      pos += len;
+    }
+    Assert.assertEquals(expected.size(), collector.messages.size());
+    Assert.assertEquals(500 - expected.size(), collector.skipped);
+    for (int i = 0; i < expected.size(); i++) {
+      Assert.assertArrayEquals(expected.get(i), collector.messages.get(i));
+    }
+  }
+
+  @Test
+  public void invalid() {
+    final Collector collector = new Collector();
+    final MessageParser parser = new MessageParser(LoggerFactory.getLogger(TestMessageParser.class), collector, 4, 300);
+    final IoBuffer buf = IoBuffer.wrap(new byte[] {
+        0, 0, 0, 1, 'a', 0, 0, 0, 0, 'b', 'c'
+    });
+    Assert.assertFalse(parser.process(buf));
+    Assert.assertFalse(buf.hasRemaining());
+    Assert.assertEquals(1, collector.messages.size());
+  }
+
+  public void parserThroughput() {
+    final byte[] stream = TestMessageParser.frames(200000, 512, null);
+    for (int round = 0; round < 3; round++) {
+      for (final boolean bulk : new boolean[] {
+          false, true
+      }) {
+        final Collector collector = new Collector();
+        final MessageParser parser = new MessageParser(LoggerFactory.getLogger(TestMessageParser.class), collector, 4, 512);
+        final long now = System.nanoTime();
+        // 8KB reads, as delivered by the acceptor
+        for (int pos = 0; pos < stream.length; pos += 8192) {
+          final IoBuffer buf = IoBuffer.wrap(stream, pos, Math.min(8192, stream.length - pos));
+          if (bulk) {
+            parser.process(buf);
+          }
+          else {
+            while (buf.hasRemaining()) {
+              parser.process(buf.get());
+            }
+          }
+        }
+        final double elapsed = (System.nanoTime() - now) / 1e9;
+        final long messages = 200000 - collector.skipped;
+        System.out.println(String.format("bulk=%b %.0f msg/s %.1f MB/s", bulk, messages / elapsed, (collector.bytes / (1024.0 * 1024.0)) / elapsed));
+      }
+    }
+  }
+
+}
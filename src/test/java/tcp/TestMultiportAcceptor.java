@@ -0,0 +1,189 @@
+/**
+ * Copyright (C) 1999-2021 Enrico Croce - AGPL >= 3.0
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package tcp;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import org.apache.flume.ChannelException;
+import org.apache.flume.Event;
+import org.apache.flume.channel.ChannelProcessor;
+import org.apache.flume.instrumentation.SourceCounter;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.DummySession;
+import org.junit.Assert;
+import org.junit.Test;
+import net.eiroca.sysadm.flume.plugin.MultiportTCPSource;
+import net.eiroca.sysadm.flume.util.tcp.MultiportAcceptor;
+import net.eiroca.sysadm.flume.util.tcp.MultiportAcceptor.BodyMode;
+
+public class TestMultiportAcceptor {
+
+  /**
+   * Records the batches sent to the channel, rejecting them when full is set.
+   */
+  private static class Recorder extends ChannelProcessor {
+
+    final List<List<Event>> batches = new ArrayList<>();
+    boolean full;
+
+    Recorder() {
+      super(null);
+    }
+
+    @Override
+    public void processEventBatch(final List<Event> events) {
+      if (full) { throw new ChannelException("full"); }
+      batches.add(new ArrayList<>(events));
+    }
+
+  }
+
+  private static IoBuffer frames(final byte[]... messages) {
+    final IoBuffer buf = IoBuffer.allocate(64).setAutoExpand(true);
+    for (final byte[] message : messages) {
+      buf.putInt(message.length);
+      buf.put(message);
+    }
+    buf.flip();
+    return buf;
+  }
+
+  private static IoBuffer frames(final int count) {
+    final byte[][] messages = new byte[count][];
+    for (int i = 0; i < count; i++) {
+      messages[i] = ("message " + i).getBytes(StandardCharsets.UTF_8);
+    }
+    return TestMultiportAcceptor.frames(messages);
+  }
+
+  private static DummySession open(final MultiportAcceptor acceptor) {
+    final DummySession session = new DummySession();
+    session.setLocalAddress(new InetSocketAddress("127.0.0.1", 5140));
+    session.setRemoteAddress(new InetSocketAddress("127.0.0.1", 40000));
+    acceptor.sessionCreated(session);
+    return session;
+  }
+
+  private static byte[] body(final MultiportAcceptor acceptor, final Recorder recorder, final byte[] message) {
+    final DummySession session = TestMultiportAcceptor.open(acceptor);
+    acceptor.messageReceived(session, TestMultiportAcceptor.frames(message));
+    acceptor.sessionClosed(session);
+    final List<Event> batch = recorder.batches.get(recorder.batches.size() - 1);
+    return batch.get(0).getBody();
+  }
+
+  @Test
+  public void flushOnSize() {
+    final Recorder recorder = new Recorder();
+    final SourceCounter counter = new SourceCounter("test");
+    final HashMap<String, String> headers = new HashMap<>();
+    headers.put(MultiportTCPSource.HEADER_PORT, "port");
+    final MultiportAcceptor acceptor = new MultiportAcceptor(1024, recorder, counter, headers, "UTF-8", 3, 60000, BodyMode.DECODE, null);
+    final DummySession session = TestMultiportAcceptor.open(acceptor);
+    acceptor.messageReceived(session, TestMultiportAcceptor.frames(7));
+    // full batches only, the last event waits for more
+    Assert.assertEquals(2, recorder.batches.size());
+    Assert.assertEquals(3, recorder.batches.get(1).size());
+    Assert.assertEquals("message 3", new String(recorder.batches.get(1).get(0).getBody(), StandardCharsets.UTF_8));
+    Assert.assertEquals("5140", recorder.batches.get(0).get(0).getHeaders().get("port"));
+    // the rest is sent when the session closes
+    acceptor.sessionClosed(session);
+    Assert.assertEquals(3, recorder.batches.size());
+    Assert.assertEquals(1, recorder.batches.get(2).size());
+    Assert.assertEquals(3, counter.getAppendBatchReceivedCount());
+    Assert.assertEquals(3, counter.getAppendBatchAcceptedCount());
+    Assert.assertEquals(7, counter.getEventReceivedCount());
+    Assert.assertEquals(7, counter.getEventAcceptedCount());
+  }
+
+  @Test
+  public void flushOnRead() {
+    final Recorder recorder = new Recorder();
+    final MultiportAcceptor acceptor = new MultiportAcceptor(1024, recorder, new SourceCounter("test"), new HashMap<String, String>(), "UTF-8", 100, 0, BodyMode.DECODE, null);
+    final DummySession session = TestMultiportAcceptor.open(acceptor);
+    // no linger: a batch per read
+    acceptor.messageReceived(session, TestMultiportAcceptor.frames(2));
+    acceptor.messageReceived(session, TestMultiportAcceptor.frames(3));
+    Assert.assertEquals(2, recorder.batches.size());
+    Assert.assertEquals(2, recorder.batches.get(0).size());
+    Assert.assertEquals(3, recorder.batches.get(1).size());
+    acceptor.sessionClosed(session);
+    Assert.assertEquals(2, recorder.batches.size());
+  }
+
+  @Test
+  public void flushOnLinger() throws InterruptedException {
+    final Recorder recorder = new Recorder();
+    final MultiportAcceptor acceptor = new MultiportAcceptor(1024, recorder, new SourceCounter("test"), new HashMap<String, String>(), "UTF-8", 100, 200, BodyMode.DECODE, null);
+    final DummySession session = TestMultiportAcceptor.open(acceptor);
+    acceptor.messageReceived(session, TestMultiportAcceptor.frames(2));
+    acceptor.messageReceived(session, TestMultiportAcceptor.frames(2));
+    acceptor.flushExpired();
+    Assert.assertEquals(0, recorder.batches.size());
+    Thread.sleep(250);
+    acceptor.flushExpired();
+    Assert.assertEquals(1, recorder.batches.size());
+    Assert.assertEquals(4, recorder.batches.get(0).size());
+    acceptor.sessionClosed(session);
+    Assert.assertEquals(1, recorder.batches.size());
+  }
+
+  @Test
+  public void rejectedBatch() {
+    final Recorder recorder = new Recorder();
+    final SourceCounter counter = new SourceCounter("test");
+    final MultiportAcceptor acceptor = new MultiportAcceptor(1024, recorder, counter, new HashMap<String, String>(), "UTF-8", 100, 0, BodyMode.DECODE, null);
+    final DummySession session = TestMultiportAcceptor.open(acceptor);
+    recorder.full = true;
+    acceptor.messageReceived(session, TestMultiportAcceptor.frames(5));
+    recorder.full = false;
+    // the rejected events are dropped, not sent again
+    acceptor.sessionClosed(session);
+    Assert.assertEquals(0, recorder.batches.size());
+    Assert.assertEquals(1, counter.getAppendBatchReceivedCount());
+    Assert.assertEquals(0, counter.getAppendBatchAcceptedCount());
+    Assert.assertEquals(5, counter.getEventReceivedCount());
+    Assert.assertEquals(0, counter.getEventAcceptedCount());
+  }
+
+  @Test
+  public void bodyModes() {
+    final Recorder recorder = new Recorder();
+    final HashMap<String, String> headers = new HashMap<>();
+    final byte[] latin = "caf\u00e9".getBytes(StandardCharsets.ISO_8859_1);
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      sb.append("\u00e8\u20ac");
+    }
+    // longer than the validation buffer
+    final byte[] utf8 = sb.toString().getBytes(StandardCharsets.UTF_8);
+    final byte[] invalid = new byte[] {
+        'a', (byte)0xC3, '(', 'b'
+    };
+    final MultiportAcceptor pass = new MultiportAcceptor(8192, recorder, new SourceCounter("test"), headers, "UTF-8", 100, 0, BodyMode.PASS, null);
+    Assert.assertArrayEquals(invalid, TestMultiportAcceptor.body(pass, recorder, invalid));
+    final MultiportAcceptor decode = new MultiportAcceptor(8192, recorder, new SourceCounter("test"), headers, "ISO-8859-1", 100, 0, BodyMode.DECODE, null);
+    Assert.assertArrayEquals("caf\u00e9".getBytes(), TestMultiportAcceptor.body(decode, recorder, latin));
+    final MultiportAcceptor validate = new MultiportAcceptor(8192, recorder, new SourceCounter("test"), headers, "UTF-8", 100, 0, BodyMode.VALIDATE, null);
+    Assert.assertArrayEquals(utf8, TestMultiportAcceptor.body(validate, recorder, utf8));
+    // invalid input is decoded as in DECODE mode
+    Assert.assertArrayEquals(new String(invalid, StandardCharsets.UTF_8).getBytes(), TestMultiportAcceptor.body(validate, recorder, invalid));
+  }
+
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 1999-2021 Enrico Croce - AGPL >= 3.0
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package tracker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.flume.Event;
+import org.junit.Assert;
+import org.junit.Test;
+import com.google.common.util.concurrent.Uninterruptibles;
+import net.eiroca.sysadm.flume.api.ext.IEventProcessor;
+import net.eiroca.sysadm.flume.util.tracker.EventPipeline;
+import net.eiroca.sysadm.flume.util.tracker.SourceTrack;
+
+public class TestEventPipeline {
+
+  /**
+   * Accepts the first accepted batches, then rejects the others until accepted is raised.
+   */
+  private static class Receiver implements IEventProcessor {
+
+    volatile int accepted;
+    volatile int calls;
+
+    Receiver(final int accepted) {
+      this.accepted = accepted;
+    }
+
+    @Override
+    public boolean process(final List<Event> events) {
+      calls++;
+      if (accepted > 0) {
+        accepted--;
+        return true;
+      }
+      Uninterruptibles.sleepUninterruptibly(1, TimeUnit.MILLISECONDS);
+      return false;
+    }
+
+  }
+
+  /**
+   * Records the delivered positions and checks the durable one at each delivery.
+   */
+  private static class Listener implements EventPipeline.DeliveryListener {
+
+    final List<Long> delivered = new ArrayList<>();
+    volatile boolean durableAhead;
+
+    @Override
+    public void delivered(final SourceTrack ts, final long position) {
+      delivered.add(position);
+      if (ts.durablePos() > position) {
+        durableAhead = true;
+      }
+    }
+
+  }
+
+  // as TrackerManager does: the batch is queued, then the source position moves past it
+  private static void read(final EventPipeline pipeline, final SourceTrack ts, final long position) {
+    pipeline.submit(ts, new ArrayList<Event>(), position);
+    ts.checkPoint(System.currentTimeMillis(), position);
+  }
+
+  @Test
+  public void rejectThenAccept() {
+    final Receiver receiver = new Receiver(0);
+    final Listener listener = new Listener();
+    final EventPipeline pipeline = new EventPipeline("test-retry", receiver, listener, 4);
+    final SourceTrack ts = new SourceTrack("id", "source");
+    pipeline.start();
+    TestEventPipeline.read(pipeline, ts, 10);
+    TestEventPipeline.read(pipeline, ts, 20);
+    while (receiver.calls < 3) {
+      Uninterruptibles.sleepUninterruptibly(1, TimeUnit.MILLISECONDS);
+    }
+    // the first batch is retried, nothing is delivered yet
+    Assert.assertEquals(0, ts.durablePos());
+    Assert.assertEquals(0, listener.delivered.size());
+    receiver.accepted = 2;
+    pipeline.await(ts);
+    Assert.assertEquals(2, listener.delivered.size());
+    Assert.assertEquals(10L, (long)listener.delivered.get(0));
+    Assert.assertEquals(20L, (long)listener.delivered.get(1));
+    Assert.assertFalse(listener.durableAhead);
+    Assert.assertEquals(20, ts.durablePos());
+    pipeline.stop();
+  }
+
+  @Test
+  public void stopWithQueuedBatches() {
+    final Receiver receiver = new Receiver(1);
+    final Listener listener = new Listener();
+    final EventPipeline pipeline = new EventPipeline("test-stop", receiver, listener, 4);
+    final SourceTrack ts = new SourceTrack("id", "source");
+    pipeline.start();
+    TestEventPipeline.read(pipeline, ts, 10);
+    TestEventPipeline.read(pipeline, ts, 20);
+    TestEventPipeline.read(pipeline, ts, 30);
+    Assert.assertTrue(ts.durablePos() <= 10);
+    pipeline.stop();
+    // only the first batch reached the channel, the queued ones will be read again
+    Assert.assertEquals(1, listener.delivered.size());
+    Assert.assertFalse(listener.durableAhead);
+    Assert.assertEquals(10, ts.durablePos());
+  }
+
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 1999-2021 Enrico Croce - AGPL >= 3.0
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package tracker;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+import net.eiroca.sysadm.flume.util.tracker.PositionLog;
+
+public class TestPositionLog {
+
+  private static Map<String, PositionLog.Entry> open(final PositionLog log) throws IOException {
+    final Map<String, PositionLog.Entry> result = new HashMap<>();
+    for (final PositionLog.Entry e : log.open()) {
+      result.put(e.source, e);
+    }
+    return result;
+  }
+
+  @Test
+  public void replay() throws IOException {
+    final File file = File.createTempFile("position", ".log");
+    file.delete();
+    file.deleteOnExit();
+    PositionLog log = new PositionLog(file, -1);
+    Assert.assertTrue(TestPositionLog.open(log).isEmpty());
+    // enough records to trigger compactions
+    for (int i = 0; i < 5000; i++) {
+      log.put("s" + (i % 10), ((i % 3) == 0) ? null : "id", i, i * 2);
+    }
+    log.remove("s3");
+    log.close();
+    log = new PositionLog(file, 0);
+    Map<String, PositionLog.Entry> entries = TestPositionLog.open(log);
+    Assert.assertEquals(9, entries.size());
+    Assert.assertNull(entries.get("s3"));
+    Assert.assertEquals(4991, entries.get("s1").position);
+    Assert.assertEquals(9982, entries.get("s1").lastCheck);
+    Assert.assertNull(entries.get("s2").id);
+    log.put("s1", "new", 5000, 10000);
+    log.close();
+    // torn last record is dropped
+    final long size = file.length();
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(size - 3);
+    }
+    log = new PositionLog(file, 0);
+    entries = TestPositionLog.open(log);
+    Assert.assertEquals(9, entries.size());
+    Assert.assertEquals("id", entries.get("s1").id);
+    Assert.assertEquals(4991, entries.get("s1").position);
+    log.put("s1", "new", 5000, 10000);
+    log.close();
+    log = new PositionLog(file, 0);
+    Assert.assertEquals(5000, TestPositionLog.open(log).get("s1").position);
+    log.close();
+    Assert.assertEquals(size, file.length());
+  }
+
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 1999-2021 Enrico Croce - AGPL >= 3.0
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package tracker;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+import net.eiroca.sysadm.flume.util.tracker.source.ReadAhead;
+
+public class TestReadAhead {
+
+  /**
+   * In-process stand-in of a remote share: positional reads over an array, with injected latency.
+   */
+  private static class RemoteFile implements ReadAhead.BlockReader {
+
+    final byte[] data;
+    final long latency;
+    int size;
+    // a read at shortPos returns at most shortLen bytes
+    long shortPos = -1;
+    int shortLen;
+
+    RemoteFile(final byte[] data, final long latency) {
+      this.data = data;
+      this.latency = latency;
+      size = data.length;
+    }
+
+    @Override
+    public int read(final long pos, final byte[] buf, final int len) throws IOException {
+      if (latency > 0) {
+        try {
+          TimeUnit.MICROSECONDS.sleep(latency);
+        }
+        catch (final InterruptedException e) {
+          throw new IOException(e);
+        }
+      }
+      int n = (int)Math.min(len, size - pos);
+      if (pos == shortPos) {
+        n = Math.min(n, shortLen);
+      }
+      if (n <= 0) { return -1; }
+      System.arraycopy(data, (int)pos, buf, 0, n);
+      return n;
+    }
+
+  }
+
+  private static byte[] data(final int size) {
+    final byte[] data = new byte[size];
+    new Random(1).nextBytes(data);
+    return data;
+  }
+
+  @Test
+  public void readAhead() throws IOException {
+    final RemoteFile file = new RemoteFile(TestReadAhead.data(100000), 0);
+    final byte[] buf = new byte[1000];
+    final byte[] copy = new byte[file.data.length];
+    // the file grows while it is read
+    file.size = 30500;
+    final ReadAhead readAhead = new ReadAhead(file, buf.length, 4);
+    long pos = 0;
+    int len;
+    while ((len = readAhead.read(pos, file.size, buf)) > 0) {
+      System.arraycopy(buf, 0, copy, (int)pos, len);
+      pos += len;
+      if ((pos == 30500) && (file.size < file.data.length)) {
+        file.size = file.data.length;
+      }
+    }
+    Assert.assertEquals(file.data.length, pos);
+    Assert.assertArrayEquals(file.data, copy);
+    // seek back (rollback)
+    Assert.assertEquals(buf.length, readAhead.read(5000, file.size, buf));
+    Assert.assertEquals(file.data[5000], buf[0]);
+    Assert.assertEquals(buf.length, readAhead.read(6000, file.size, buf));
+    Assert.assertEquals(file.data[6999], buf[999]);
+    readAhead.cancel();
+  }
+
+  @Test
+  public void shortRead() throws IOException {
+    final RemoteFile file = new RemoteFile(TestReadAhead.data(100), 0);
+    final byte[] buf = new byte[10];
+    // the blocks read ahead after a short read are misaligned and dropped
+    file.shortPos = 0;
+    file.shortLen = 6;
+    final ReadAhead readAhead = new ReadAhead(file, buf.length, 4);
+    Assert.assertEquals(6, readAhead.read(0, 30, buf));
+    Assert.assertEquals(buf.length, readAhead.read(6, 30, buf));
+    Assert.assertEquals(file.data[6], buf[0]);
+    Assert.assertEquals(file.data[15], buf[9]);
+    Assert.assertEquals(buf.length, readAhead.read(16, 30, buf));
+    Assert.assertEquals(file.data[16], buf[0]);
+    readAhead.cancel();
+  }
+
+  public void readAheadThroughput() throws IOException {
+    final int blockSize = 64 * 1024;
+    // 2 ms per round trip
+    final RemoteFile file = new RemoteFile(TestReadAhead.data(64 * 1024 * 1024), 2000);
+    final byte[] buf = new byte[blockSize];
+    for (final int depth : new int[] {
+        0, 1, 4, 8
+    }) {
+      final ReadAhead readAhead = (depth > 0) ? new ReadAhead(file, blockSize, depth) : null;
+      final long now = System.nanoTime();
+      long pos = 0;
+      long sum = 0;
+      int len;
+      while (true) {
+        len = (readAhead != null) ? readAhead.read(pos, file.size, buf) : file.read(pos, buf, blockSize);
+        if (len <= 0) {
+          break;
+        }
+        // parsing stand-in
+        for (int i = 0; i < len; i++) {
+          sum += buf[i];
+        }
+        pos += len;
+      }
+      final double elapsed = (System.nanoTime() - now) / 1e9;
+      System.out.println(String.format("read-ahead=%d %.1f MB/s (%d)", depth, (pos / (1024.0 * 1024.0)) / elapsed, sum));
+    }
+  }
+
+}
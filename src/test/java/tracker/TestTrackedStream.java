@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 1999-2021 Enrico Croce - AGPL >= 3.0
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package tracker;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.flume.Event;
+import org.junit.Assert;
+import org.junit.Test;
+import com.google.common.collect.ImmutableMap;
+import net.eiroca.sysadm.flume.util.tracker.TrackerManagerConfig;
+import net.eiroca.sysadm.flume.util.tracker.source.LineResult;
+import net.eiroca.sysadm.flume.util.tracker.source.TrackedFile;
+import net.eiroca.sysadm.flume.util.tracker.watcher.WatcherConfig;
+
+public class TestTrackedStream {
+
+  private static WatcherConfig config(final File file, final int bufferSize, final boolean mmap, final String... extra) {
+    final ImmutableMap.Builder<String, String> context = ImmutableMap.<String, String> builder() //
+        .put("watchers", "w") //
+        .put("watcher.w.path", "file:" + file.getAbsolutePath()) //
+        .put("watcher.w.buffer-size", String.valueOf(bufferSize)) //
+        .put("watcher.w.mmap", String.valueOf(mmap));
+    for (int i = 0; i < extra.length; i += 2) {
+      context.put("watcher.w." + extra[i], extra[i + 1]);
+    }
+    return new TrackerManagerConfig(context.build(), null).getFileConfig("w");
+  }
+
+  private static List<String> readLines(final File file, final int bufferSize, final boolean mmap) throws IOException {
+    final TrackedFile tracked = new TrackedFile(file, 0, TestTrackedStream.config(file, bufferSize, mmap));
+    tracked.open(0);
+    final List<String> lines = new ArrayList<>();
+    LineResult line;
+    while ((line = tracked.readLine(true)) != null) {
+      lines.add(new String(line.getLine()) + (line.lineSepInclude ? "" : "#"));
+    }
+    Assert.assertEquals(file.length(), tracked.getMarkPos());
+    tracked.close();
+    return lines;
+  }
+
+  @Test
+  public void readLine() throws IOException {
+    final File file = File.createTempFile("tracked", ".log");
+    file.deleteOnExit();
+    final StringBuilder longLine = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      longLine.append("0123456789");
+    }
+    Files.write(file.toPath(), ("first\r\nsecond\n\n" + longLine + "\r\nlast").getBytes());
+    final String[] expected = {
+        "first", "second", "", longLine.toString(), "last#"
+    };
+    for (final int bufferSize : new int[] {
+        3, 7, 64, 4096
+    }) {
+      Assert.assertArrayEquals(expected, TestTrackedStream.readLines(file, bufferSize, false).toArray());
+      Assert.assertArrayEquals(expected, TestTrackedStream.readLines(file, bufferSize, true).toArray());
+    }
+  }
+
+  private static List<String> readEvents(final File file, final String... extra) throws IOException {
+    final TrackedFile tracked = new TrackedFile(file, 0, TestTrackedStream.config(file, 16, false, extra));
+    tracked.open(0);
+    final List<String> events = new ArrayList<>();
+    for (final Event event : tracked.readEvents(100, false, true)) {
+      events.add(new String(event.getBody()));
+    }
+    tracked.close();
+    return events;
+  }
+
+  @Test
+  public void startMatch() throws IOException {
+    final File file = File.createTempFile("tracked", ".log");
+    file.deleteOnExit();
+    Files.write(file.toPath(), "2021-01-01 00:00:00 first\n  at one\n\tat two\n2021-01-01 00:00:01 second\nX2021-01-01 00:00:02\n2021-01-01 00:00:03 last\n".getBytes());
+    final String[] expected = {
+        "2021-01-01 00:00:00 first|  at one|\tat two", "2021-01-01 00:00:01 second|X2021-01-01 00:00:02", "2021-01-01 00:00:03 last"
+    };
+    final String[][] configs = {
+        {
+            "start-match", "timestamp:yyyy-MM-dd HH:mm:ss"
+        }, {
+            "start-match", "prefix:2021-"
+        }, {
+            "start-match", "class:0-9"
+        }, {
+            "pattern", "^\\d{4}-\\d\\d-\\d\\d"
+        }
+    };
+    for (final String[] extra : configs) {
+      Assert.assertArrayEquals(extra[1], expected, TestTrackedStream.readEvents(file, extra[0], extra[1], "separator", "|").toArray());
+    }
+    // a new event starts with a non blank char
+    final String[] nonBlank = {
+        "2021-01-01 00:00:00 first|  at one|\tat two", "2021-01-01 00:00:01 second", "X2021-01-01 00:00:02", "2021-01-01 00:00:03 last"
+    };
+    Assert.assertArrayEquals(nonBlank, TestTrackedStream.readEvents(file, "start-match", "class:^ \t", "separator", "|").toArray());
+  }
+
+  public void readLineAllocation() throws IOException {
+    final File file = File.createTempFile("tracked", ".log");
+    file.deleteOnExit();
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 200000; i++) {
+      sb.append("2021-01-01 00:00:00.000 INFO [main] line ").append(i).append(" of the benchmark file\n");
+      if ((i % 1000) == 0) {
+        // A long multi-block line (stack trace / JSON blob)
+        for (int j = 0; j < 20000; j++) {
+          sb.append("at net.eiroca.Class.method(Class.java:").append(j).append(") ");
+        }
+        sb.append('\n');
+      }
+    }
+    Files.write(file.toPath(), sb.toString().getBytes());
+    final double mb = file.length() / (1024.0 * 1024.0);
+    final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+    final long thread = Thread.currentThread().getId();
+    for (int round = 0; round < 5; round++) {
+      for (final boolean mmap : new boolean[] {
+          false, true
+      }) {
+        final TrackedFile tracked = new TrackedFile(file, 0, TestTrackedStream.config(file, 64 * 1024, mmap));
+        tracked.open(0);
+        final long allocated = threads.getThreadAllocatedBytes(thread);
+        final long now = System.nanoTime();
+        long lines = 0;
+        while (tracked.readLine(true) != null) {
+          lines++;
+        }
+        final long elapsed = System.nanoTime() - now;
+        final long bytes = threads.getThreadAllocatedBytes(thread) - allocated;
+        tracked.close();
+        System.out.println(String.format("Round %d mmap=%s lines=%d %.1f MB/s allocated %.2f MB/MB read", round, mmap, lines, mb / (elapsed / 1e9), (bytes / (1024.0 * 1024.0)) / mb));
+      }
+    }
+  }
+
+}